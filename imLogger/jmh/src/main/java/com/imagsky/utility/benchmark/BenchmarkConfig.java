@@ -0,0 +1,98 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/**
+ * Writes the logger configuration files of the benchmarks into a temporary folder
+ * and points <code>sys.propFolder</code> to it.
+ */
+final class BenchmarkConfig {
+
+	private static File folder;
+
+	private BenchmarkConfig() {
+	}
+
+	/** The folder of the configuration files and the log files. */
+	static synchronized File folder() throws IOException {
+		if (folder == null) {
+			File f = File.createTempFile("imLogger-jmh", "");
+			f.delete();
+			f.mkdirs();
+			System.setProperty("sys.propFolder", f.getAbsolutePath() + File.separator);
+			folder = f;
+		}
+		return folder;
+	}
+
+	/** Path of a log file in the benchmark folder. */
+	static String logFile(String name) throws IOException {
+		return new File(folder(), name).getAbsolutePath();
+	}
+
+	/** Write <code>&lt;loggerName&gt;.xml</code> with the given <code>dest</code> elements. */
+	static void write(String loggerName, String level, String dests) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(new File(folder(), loggerName + ".xml")), "UTF-8");
+		try {
+			out.write("<logger reset=\"true\">\n");
+			out.write(dests);
+			out.write("<level value=\"" + level + "\"/>\n");
+			out.write("</logger>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/** A <code>dest</code> element of the given type writing to <code>file</code>. */
+	static String fileDest(String name, String type, String attributes, String file) {
+		return "<dest name=\"" + name + "\" type=\"" + type + "\"" + attributes + ">"
+				+ "<parm name=\"File\" value=\"" + file + "\"/>"
+				+ "</dest>\n";
+	}
+
+	/**
+	 * The <code>dest</code> element of a destination type, writing to <code>file</code> when it
+	 * writes to a file. <code>FILE_DAILY</code> is a <code>FILE</code> destination with
+	 * <code>rolling="DAILY"</code>, <code>FILE_STANDALONE</code> one with <code>standalone="true"</code>,
+	 * <code>ASYNC</code> wraps a <code>FILE</code> destination and <code>CONSOLE</code> writes
+	 * to the standard error.
+	 */
+	static String dest(String destination, String file) {
+		if ("FILE_DAILY".equals(destination)) {
+			return fileDest("d", "FILE", " rolling=\"DAILY\"", file);
+		} else if ("FILE_STANDALONE".equals(destination)) {
+			return fileDest("d", "FILE", " standalone=\"true\"", file);
+		} else if ("SYSTEM_OUT".equals(destination)) {
+			return "<dest name=\"d\" type=\"SYSTEM_OUT\"/>\n";
+		} else if ("CONSOLE".equals(destination)) {
+			return "<dest name=\"d\" type=\"CONSOLE\"><parm name=\"Target\" value=\"System.err\"/></dest>\n";
+		} else if ("ASYNC".equals(destination)) {
+			return "<dest name=\"d\" type=\"ASYNC\">"
+					+ fileDest("f", "FILE", "", file)
+					+ "</dest>\n";
+		}
+		return fileDest("d", destination, "", file);
+	}
+
+	/**
+	 * Replace <code>System.out</code> by a stream which discards everything. The console
+	 * destinations take <code>System.out</code> when they are created, so this keeps the
+	 * benchmark output readable without skipping the console code path.
+	 */
+	static PrintStream discardSystemOut() {
+		PrintStream original = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		return original;
+	}
+}
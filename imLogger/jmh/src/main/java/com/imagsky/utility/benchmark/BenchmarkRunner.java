@@ -0,0 +1,41 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with 1, 4 and 16 threads and the gc profiler, writing the results
+ * of each thread count as JSON to <code>jmh-result-&lt;threads&gt;.json</code> in the folder given
+ * by the <code>jmh.resultFolder</code> system property (default <code>target</code>).
+ *
+ * <p>The optional argument is the regular expression of the benchmarks to run.
+ */
+public final class BenchmarkRunner {
+
+	private static final int[] THREADS = {1, 4, 16};
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+		File folder = new File(System.getProperty("jmh.resultFolder", "target"));
+		folder.mkdirs();
+		for (int i = 0; i < THREADS.length; i++) {
+			Options options = new OptionsBuilder()
+					.include(include)
+					.threads(THREADS[i])
+					.addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(folder, "jmh-result-" + THREADS[i] + ".json").getPath())
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
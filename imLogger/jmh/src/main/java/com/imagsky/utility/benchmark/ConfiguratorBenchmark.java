@@ -0,0 +1,70 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.imagsky.utility.ConfigElement;
+import com.imagsky.utility.Configurator;
+
+/**
+ * Loading a configuration file and configuring its logger, which is what the first
+ * <code>getLogger</code> call of a logger name does, and parsing the file, which is
+ * only done again when the file has changed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfiguratorBenchmark {
+
+	private PrintStream systemOut;
+	private byte[] file;
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchmarkConfig.write("bench.config", "DEBUG",
+				BenchmarkConfig.fileDest("config", "FILE", "", BenchmarkConfig.logFile("config.log")));
+		systemOut = BenchmarkConfig.discardSystemOut();
+		file = Files.readAllBytes(new File(BenchmarkConfig.folder(), "bench.config.xml").toPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		LogManager.shutdown();
+		System.setOut(systemOut);
+	}
+
+	@Benchmark
+	public Configurator loadAndConfigure() throws IOException {
+		Configurator configurator = new Configurator("bench.config");
+		configurator.loadConfigurationFile();
+		configurator.configure();
+		return configurator;
+	}
+
+	@Benchmark
+	public ConfigElement parse() throws XMLStreamException {
+		return ConfigElement.parse(new ByteArrayInputStream(file));
+	}
+}
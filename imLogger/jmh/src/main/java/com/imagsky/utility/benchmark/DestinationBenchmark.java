@@ -0,0 +1,63 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imagsky.utility.Logger;
+
+/**
+ * An enabled <code>info</code> call written by each destination type of the configuration
+ * file. <code>FILE_DAILY</code> is a <code>FILE</code> destination with <code>rolling="DAILY"</code>,
+ * <code>FILE_STANDALONE</code> one with <code>standalone="true"</code> and <code>ASYNC</code>
+ * wraps a <code>FILE</code> destination. <code>FLIGHT_RECORDER</code> only keeps the events
+ * in memory, the <code>info</code> events do not dump them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DestinationBenchmark {
+
+	@Param({"FILE", "FILE_DAILY", "FILE_STANDALONE", "SYSTEM_OUT", "ASYNC", "GROUP_COMMIT", "MMAP", "ROLLING", "FLIGHT_RECORDER"})
+	public String destination;
+
+	private Logger logger;
+	private PrintStream systemOut;
+	private String arg = "value";
+
+	@Setup
+	public void setUp() throws IOException {
+		String name = "bench.dest." + destination.toLowerCase();
+		BenchmarkConfig.write(name, "DEBUG", BenchmarkConfig.dest(destination, BenchmarkConfig.logFile(name + ".log")));
+		systemOut = BenchmarkConfig.discardSystemOut();
+		logger = Logger.getLogger(name);
+	}
+
+	@TearDown
+	public void tearDown() {
+		LogManager.shutdown();
+		System.setOut(systemOut);
+	}
+
+	@Benchmark
+	public void info() {
+		logger.info("benchmark message {}", arg);
+	}
+}
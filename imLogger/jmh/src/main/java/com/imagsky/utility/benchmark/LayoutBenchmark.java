@@ -0,0 +1,69 @@
+package com.imagsky.utility.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.ByteBuilder;
+import org.apache.log4j.CompiledPatternLayout;
+import org.apache.log4j.EncodedLayout;
+import org.apache.log4j.JsonLayout;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding one event to bytes with each layout type, without any I/O. The text
+ * layouts use the default pattern of the file destinations without location.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LayoutBenchmark {
+
+	private static final String PATTERN = "%d %-5p [%t] %c - %m%n";
+
+	@Param({"PATTERN", "COMPILED", "JSON"})
+	public String layoutType;
+
+	private Layout layout;
+	private LoggingEvent event;
+	private final ByteBuilder out = new ByteBuilder(512);
+
+	@Setup
+	public void setUp() {
+		if ("JSON".equals(layoutType)) {
+			layout = new JsonLayout();
+		} else if ("COMPILED".equals(layoutType)) {
+			layout = new CompiledPatternLayout(PATTERN);
+		} else {
+			layout = new PatternLayout(PATTERN);
+		}
+		event = new LoggingEvent(LayoutBenchmark.class.getName(), org.apache.log4j.Logger.getLogger("bench.layout"),
+				Level.INFO, "Order 42 accepted for customer \"ACME\" in 15 ms", null);
+	}
+
+	@Benchmark
+	public ByteBuilder encode() {
+		out.reset();
+		if (layout instanceof EncodedLayout) {
+			((EncodedLayout) layout).encode(event, out);
+		} else {
+			out.appendUtf8(layout.format(event));
+		}
+		return out;
+	}
+}
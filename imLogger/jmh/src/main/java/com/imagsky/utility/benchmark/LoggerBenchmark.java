@@ -0,0 +1,89 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imagsky.utility.Logger;
+
+/**
+ * The calls made by the application: <code>debug</code> with the level disabled and
+ * enabled, <code>critical</code> through <code>TivoliLog</code> and <code>getLogger</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+	private Logger disabled;
+	private Logger enabled;
+	private String arg = "value";
+	private Integer number = Integer.valueOf(42);
+	private long elapsedTime = 15;
+
+	@Setup
+	public void setUp() throws IOException {
+		BenchmarkConfig.write("bench.disabled", "INFO",
+				BenchmarkConfig.fileDest("disabled", "FILE", "", BenchmarkConfig.logFile("disabled.log")));
+		BenchmarkConfig.write("bench.enabled", "DEBUG",
+				BenchmarkConfig.fileDest("enabled", "FILE", "", BenchmarkConfig.logFile("enabled.log")));
+		BenchmarkConfig.write("tivoli", "INFO",
+				"<dest name=\"tivoli\" type=\"FILE\">"
+				+ "<parm name=\"File\" value=\"" + BenchmarkConfig.logFile("tivoli.csv") + "\"/>"
+				+ "<layout pattern=\"%m%n\"/>"
+				+ "</dest>\n");
+		disabled = Logger.getLogger("bench.disabled");
+		enabled = Logger.getLogger("bench.enabled");
+	}
+
+	@TearDown
+	public void tearDown() {
+		LogManager.shutdown();
+	}
+
+	@Benchmark
+	public void debugDisabled() {
+		disabled.debug("benchmark message");
+	}
+
+	@Benchmark
+	public void debugDisabledParameterized() {
+		disabled.debug("benchmark message {} {}", arg, number);
+	}
+
+	@Benchmark
+	public void debugEnabled() {
+		enabled.debug("benchmark message");
+	}
+
+	@Benchmark
+	public void debugEnabledParameterized() {
+		enabled.debug("benchmark message {} {}", arg, number);
+	}
+
+	@Benchmark
+	public void critical() {
+		enabled.critical(new Date(), "bench", "RESULT_OK", elapsedTime, "benchmark message");
+	}
+
+	@Benchmark
+	public Logger getLogger() {
+		return Logger.getLogger("bench.enabled");
+	}
+}
@@ -0,0 +1,130 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+import org.apache.log4j.LogManager;
+
+import com.imagsky.utility.BinaryLogReader;
+import com.imagsky.utility.Configurator;
+import com.imagsky.utility.Logger;
+
+/**
+ * Checks that reloading the configuration of a memory mapped or binary destination neither
+ * loses nor corrupts the events written meanwhile.
+ *
+ * <p>One thread logs numbered events while the configuration is reloaded again and again,
+ * changing only the layout of the <code>MMAP</code> destination and only the buffer size of
+ * the <code>BINARY</code> one. The file is read back once the destinations are closed and
+ * every event must be found once, in order. The exit status is 1 if one was not.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.imagsky.utility.benchmark.ReloadHandoverCheck [reloads]
+ * </pre>
+ *
+ * <p>The default is 200 reloads.
+ */
+public final class ReloadHandoverCheck {
+
+	private static final String[] LAYOUTS = {"%m%n", "%p %m%n"};
+
+	private static volatile boolean stopped;
+
+	private ReloadHandoverCheck() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int reloads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		PrintStream out = System.out;
+		String mapped = BenchmarkConfig.logFile("bench.reload.mmap.log");
+		String binary = BenchmarkConfig.logFile("bench.reload.binary.log");
+		int mappedEvents = run("bench.reload.mmap", mapped, true, reloads);
+		int binaryEvents = run("bench.reload.binary", binary, false, reloads);
+		LogManager.shutdown();
+		int failed = verifyText(mapped, mappedEvents, out) + verifyBinary(binary, binaryEvents, out);
+		out.println(failed == 0 ? "No event was lost." : failed + " destinations lost or corrupted events.");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	private static String dest(String file, boolean mapped, int reload) {
+		if (mapped) {
+			return "<dest name=\"d\" type=\"MMAP\"><parm name=\"File\" value=\"" + file + "\"/>"
+					+ "<parm name=\"MapSize\" value=\"65536\"/>"
+					+ "<layout type=\"COMPILED\" pattern=\"" + LAYOUTS[reload % LAYOUTS.length] + "\"/></dest>\n";
+		}
+		return "<dest name=\"d\" type=\"BINARY\"><parm name=\"File\" value=\"" + file + "\"/>"
+				+ "<parm name=\"ImmediateFlush\" value=\"false\"/>"
+				+ "<parm name=\"BufferSize\" value=\"" + (reload % 2 == 0 ? 4096 : 8192) + "\"/></dest>\n";
+	}
+
+	/** Log numbered events while reloading the configuration, returns the number of events logged. */
+	private static int run(String name, String file, boolean mapped, int reloads) throws Exception {
+		BenchmarkConfig.write(name, "DEBUG", dest(file, mapped, 0));
+		final Logger logger = Logger.getLogger(name);
+		final int[] count = new int[1];
+		stopped = false;
+		Thread writer = new Thread() {
+			public void run() {
+				int i = 0;
+				while (!stopped) {
+					logger.info("event {}", Integer.valueOf(i++));
+				}
+				count[0] = i;
+			}
+		};
+		writer.start();
+		for (int r = 1; r <= reloads; r++) {
+			BenchmarkConfig.write(name, "DEBUG", dest(file, mapped, r));
+			Configurator.reload(name);
+		}
+		stopped = true;
+		writer.join();
+		return count[0];
+	}
+
+	/** Count the events missing or out of order in a text file, returns 1 if there was any. */
+	private static int verifyText(String file, int events, PrintStream out) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		int expected = 0;
+		int wrong = 0;
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.endsWith("event " + expected)) {
+					wrong++;
+				}
+				expected++;
+			}
+		} finally {
+			in.close();
+		}
+		return report("MMAP", events, expected, wrong, out);
+	}
+
+	/** Count the events missing or out of order in a binary file, returns 1 if there was any. */
+	private static int verifyBinary(String file, int events, PrintStream out) throws IOException {
+		BinaryLogReader in = new BinaryLogReader(new FileInputStream(file));
+		int expected = 0;
+		int wrong = 0;
+		try {
+			BinaryLogReader.DecodedEvent event;
+			while ((event = in.next()) != null) {
+				if (!("event " + expected).equals(event.getRenderedMessage())) {
+					wrong++;
+				}
+				expected++;
+			}
+		} finally {
+			in.close();
+		}
+		return report("BINARY", events, expected, wrong, out);
+	}
+
+	private static int report(String destination, int events, int read, int wrong, PrintStream out) {
+		out.println(destination + ": " + events + " events logged, " + read + " read, " + wrong + " wrong");
+		return events == read && wrong == 0 ? 0 : 1;
+	}
+}
@@ -0,0 +1,124 @@
+package com.imagsky.utility.benchmark;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.log4j.LogManager;
+
+import com.imagsky.utility.Logger;
+
+/**
+ * Checks that the destinations do not pin the carrier threads of virtual threads.
+ *
+ * <p>For each destination type thousands of virtual threads log concurrently while a
+ * flight recording collects the <code>jdk.VirtualThreadPinned</code> events, which the JVM
+ * records when a virtual thread blocks inside a <code>synchronized</code> block. The stack
+ * of each event is printed and the exit status is 1 if there was any.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.imagsky.utility.benchmark.VirtualThreadPinningCheck [threads] [events] [destination...]
+ * </pre>
+ *
+ * <p>The defaults are 10000 virtual threads writing 20 events each to the file, rolling and
+ * console destinations, see {@link BenchmarkConfig#dest(String, String)}. <code>CONSOLE</code>
+ * writes to the standard error. Needs Java 21, the class is only compiled by the
+ * <code>virtual-threads</code> profile.
+ */
+public final class VirtualThreadPinningCheck {
+
+	private static final String PINNED = "jdk.VirtualThreadPinned";
+
+	private static final String[] DESTINATIONS = {"FILE", "FILE_DAILY", "FILE_STANDALONE", "ROLLING", "SYSTEM_OUT", "CONSOLE"};
+
+	private static final int STACK_DEPTH = 12;
+
+	private VirtualThreadPinningCheck() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int events = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		String[] destinations = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : DESTINATIONS;
+		PrintStream out = BenchmarkConfig.discardSystemOut();
+		int pinned = 0;
+		for (int i = 0; i < destinations.length; i++) {
+			pinned += check(destinations[i], threads, events, out);
+		}
+		LogManager.shutdown();
+		out.println(pinned == 0 ? "No virtual thread was pinned." : pinned + " virtual threads were pinned.");
+		System.exit(pinned == 0 ? 0 : 1);
+	}
+
+	/** Log from the virtual threads to one destination type, returns the number of pinning events. */
+	private static int check(String destination, int threads, final int events, PrintStream out) throws Exception {
+		String name = "bench.pinning." + destination.toLowerCase();
+		BenchmarkConfig.write(name, "DEBUG", BenchmarkConfig.dest(destination, BenchmarkConfig.logFile(name + ".log")));
+		final Logger logger = Logger.getLogger(name);
+
+		Recording recording = new Recording();
+		recording.enable(PINNED).withThreshold(Duration.ZERO).withStackTrace();
+		recording.start();
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		try {
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				executor.submit(new Runnable() {
+					public void run() {
+						for (int e = 0; e < events; e++) {
+							logger.info("virtual thread {} event {}", id, e);
+						}
+					}
+				});
+			}
+		} finally {
+			//waits for the submitted tasks
+			executor.close();
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		recording.stop();
+
+		Path file = Files.createTempFile("imLogger-pinning", ".jfr");
+		List<RecordedEvent> recorded;
+		try {
+			recording.dump(file);
+			recorded = RecordingFile.readAllEvents(file);
+		} finally {
+			recording.close();
+			Files.delete(file);
+		}
+		int pinned = 0;
+		Iterator<RecordedEvent> i = recorded.iterator();
+		while (i.hasNext()) {
+			RecordedEvent event = i.next();
+			if (!PINNED.equals(event.getEventType().getName())) {
+				continue;
+			}
+			pinned++;
+			out.println(destination + " pinned for " + event.getDuration().toNanos() / 1000 + " us at");
+			if (event.getStackTrace() != null) {
+				List<RecordedFrame> frames = event.getStackTrace().getFrames();
+				for (int f = 0; f < frames.size() && f < STACK_DEPTH; f++) {
+					RecordedFrame frame = frames.get(f);
+					out.println("\t" + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+							+ ":" + frame.getLineNumber());
+				}
+			}
+		}
+		out.println(destination + ": " + (long) threads * events + " events from " + threads
+				+ " virtual threads in " + millis + " ms, " + pinned + " pinned");
+		return pinned;
+	}
+}
@@ -0,0 +1,347 @@
+package com.imagsky.utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.log4j.BinaryLogAppender;
+import org.apache.log4j.Category;
+import org.apache.log4j.Hierarchy;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.RootLogger;
+
+/**
+   <p><code>BinaryLogReader</code> reads the files written by the <code>BINARY</code> destination,
+   see {@link BinaryLogAppender}, one event at a time, so files of any size can be rendered.
+   Only the dictionary of the file is kept in memory.
+
+   <p>Run it to render a file as text, by default in the format of the file destinations,
+   or as CSV:
+   <pre>
+   java com.imagsky.utility.BinaryLogReader [-csv | -pattern &lt;conversion pattern&gt;] &lt;file&gt; [&lt;output file&gt;]
+   </pre>
+   Caller locations are only available when the destination had <code>LocationInfo</code> set,
+   NDC and MDC are not stored.
+ */
+public final class BinaryLogReader {
+
+	private static final String FQCN = BinaryLogReader.class.getName();
+	private static final String CSV_HEADER = "Timestamp,Level,Thread,Logger,Location,Pattern,Message,Throwable";
+	private static final String CSV_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
+
+	/** A decoded event, with the values log4j would otherwise take from the current thread. */
+	public static final class DecodedEvent extends LoggingEvent {
+		private static final long serialVersionUID = 1L;
+
+		private final String threadName;
+		private final LocationInfo location;
+		private final String[] throwable;
+		private final String pattern;
+		private final Object[] arguments;
+
+		DecodedEvent(Category logger, long timeStamp, Level level, String message, String threadName,
+				LocationInfo location, String[] throwable, String pattern, Object[] arguments) {
+			super(FQCN, logger, timeStamp, level, message, null);
+			this.threadName = threadName;
+			this.location = location;
+			this.throwable = throwable;
+			this.pattern = pattern;
+			this.arguments = arguments;
+		}
+		public String getThreadName() {
+			return threadName;
+		}
+		public LocationInfo getLocationInformation() {
+			return location;
+		}
+		public String[] getThrowableStrRep() {
+			return throwable;
+		}
+		public String getNDC() {
+			return null;
+		}
+		public Object getMDC(String key) {
+			return null;
+		}
+		/** The message pattern, <code>null</code> for a message which was not parameterized. */
+		public String getPattern() {
+			return pattern;
+		}
+		/** The decoded arguments: <code>String</code>, <code>Integer</code>, <code>Long</code>, <code>Float</code>, <code>Double</code>, <code>Boolean</code> or <code>null</code>. */
+		public Object[] getArguments() {
+			return arguments;
+		}
+	}
+
+	private final DataInputStream in;
+	private final Hierarchy hierarchy = new Hierarchy(new RootLogger(Level.ALL));
+	private final ArrayList templates = new ArrayList();
+	private final ArrayList templateKinds = new ArrayList();
+	private final ArrayList threads = new ArrayList();
+	private final ArrayList loggers = new ArrayList();
+	private final ArrayList locations = new ArrayList();
+	private long baseTime;
+	private boolean started = false;
+
+	public BinaryLogReader(InputStream in) {
+		this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+	}
+
+	/** The next event, or <code>null</code> at the end of the file. A truncated last event is skipped. */
+	public DecodedEvent next() throws IOException {
+		while (true) {
+			int type = in.read();
+			if (type < 0) {
+				return null;
+			}
+			try {
+				if (type == BinaryLogAppender.RECORD_EVENT) {
+					if (!started) {
+						throw new IOException("Event before the start of a segment.");
+					}
+					return readEvent();
+				}
+				readRecord(type);
+			} catch (EOFException e) {
+				LogLog.warn("The file ends within a record, the last record is skipped.");
+				return null;
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void readRecord(int type) throws IOException {
+		switch (type) {
+			case BinaryLogAppender.RECORD_SEGMENT:
+				byte[] magic = new byte[BinaryLogAppender.MAGIC.length];
+				in.readFully(magic);
+				if (!Arrays.equals(magic, BinaryLogAppender.MAGIC)) {
+					throw new IOException("Not a binary log file.");
+				}
+				int version = in.readUnsignedByte();
+				if (version != BinaryLogAppender.VERSION) {
+					throw new IOException("Unsupported binary log version " + version + ".");
+				}
+				baseTime = readVarint();
+				templates.clear();
+				templateKinds.clear();
+				threads.clear();
+				loggers.clear();
+				locations.clear();
+				started = true;
+				break;
+			case BinaryLogAppender.RECORD_TEMPLATE:
+				int id = (int) readVarint();
+				Integer kind = Integer.valueOf(in.readUnsignedByte());
+				define(templateKinds, id, kind);
+				define(templates, id, readString());
+				break;
+			case BinaryLogAppender.RECORD_THREAD:
+				define(threads, (int) readVarint(), readString());
+				break;
+			case BinaryLogAppender.RECORD_LOGGER:
+				define(loggers, (int) readVarint(), readString());
+				break;
+			case BinaryLogAppender.RECORD_LOCATION:
+				LocationInfo location = new LocationInfo(null, null);
+				define(locations, (int) readVarint(), location);
+				location.fullInfo = readString();
+				break;
+			default:
+				throw new IOException("Unknown record type " + type + ".");
+		}
+	}
+
+	private DecodedEvent readEvent() throws IOException {
+		int templateId = (int) readVarint();
+		long timeStamp = baseTime + unzigzag(readVarint());
+		Level level = Level.toLevel((int) readVarint());
+		String thread = (String) lookup(threads, (int) readVarint());
+		String logger = (String) lookup(loggers, (int) readVarint());
+		int locationId = (int) readVarint();
+		LocationInfo location = locationId == 0 ? new LocationInfo(null, null) : (LocationInfo) lookup(locations, locationId);
+		int count = (int) readVarint();
+		Object[] args = new Object[count];
+		for (int i = 0; i < count; i++) {
+			args[i] = readArgument();
+		}
+		int lines = (int) readVarint();
+		String[] throwable = null;
+		if (lines > 0) {
+			throwable = new String[lines];
+			for (int i = 0; i < lines; i++) {
+				throwable[i] = readString();
+			}
+		}
+		String template = (String) lookup(templates, templateId);
+		String pattern = null;
+		String message;
+		if (((Integer) lookup(templateKinds, templateId)).intValue() == BinaryLogAppender.TEMPLATE_PATTERN) {
+			pattern = template;
+			message = MessageFormatter.format(pattern, args, count);
+		} else {
+			message = count > 0 && args[0] != null ? String.valueOf(args[0]) : null;
+		}
+		return new DecodedEvent(hierarchy.getLogger(logger), timeStamp, level, message, thread, location, throwable, pattern, args);
+	}
+
+	private Object readArgument() throws IOException {
+		int type = in.readUnsignedByte();
+		switch (type) {
+			case BinaryLogAppender.ARG_NULL: return null;
+			case BinaryLogAppender.ARG_STRING: return readString();
+			case BinaryLogAppender.ARG_INT: return Integer.valueOf((int) unzigzag(readVarint()));
+			case BinaryLogAppender.ARG_LONG: return Long.valueOf(unzigzag(readVarint()));
+			case BinaryLogAppender.ARG_FLOAT: return Float.valueOf(Float.intBitsToFloat((int) readVarint()));
+			case BinaryLogAppender.ARG_DOUBLE: return Double.valueOf(Double.longBitsToDouble(readVarint()));
+			case BinaryLogAppender.ARG_TRUE: return Boolean.TRUE;
+			case BinaryLogAppender.ARG_FALSE: return Boolean.FALSE;
+			default: throw new IOException("Unknown argument type " + type + ".");
+		}
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint.");
+	}
+
+	private String readString() throws IOException {
+		byte[] b = new byte[(int) readVarint()];
+		in.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void define(ArrayList list, int id, Object value) {
+		while (list.size() <= id) {
+			list.add(null);
+		}
+		list.set(id, value);
+	}
+
+	private static Object lookup(ArrayList list, int id) throws IOException {
+		Object value = id < list.size() ? list.get(id) : null;
+		if (value == null) {
+			throw new IOException("Undefined dictionary id " + id + ".");
+		}
+		return value;
+	}
+
+	/** Render the events as text with a <code>PatternLayout</code> of <code>conversionPattern</code>, followed by their stack traces. */
+	public static void renderText(InputStream in, Writer out, String conversionPattern) throws IOException {
+		PatternLayout layout = new PatternLayout(conversionPattern);
+		BinaryLogReader reader = new BinaryLogReader(in);
+		LoggingEvent event;
+		while ((event = reader.next()) != null) {
+			out.write(layout.format(event));
+			String[] s = event.getThrowableStrRep();
+			if (s != null && layout.ignoresThrowable()) {
+				for (int i = 0; i < s.length; i++) {
+					out.write(s[i]);
+					out.write(Layout.LINE_SEP);
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/** Render the events as CSV, one line per event with the stack trace in the last field. */
+	public static void renderCsv(InputStream in, Writer out) throws IOException {
+		SimpleDateFormat formatter = new SimpleDateFormat(CSV_DATE_FORMAT);
+		BinaryLogReader reader = new BinaryLogReader(in);
+		StringBuilder sb = new StringBuilder(256);
+		out.write(CSV_HEADER);
+		out.write(Layout.LINE_SEP);
+		DecodedEvent event;
+		while ((event = reader.next()) != null) {
+			sb.setLength(0);
+			sb.append(formatter.format(new Date(event.timeStamp))).append(',');
+			sb.append(event.getLevel()).append(',');
+			MonitoringRecordEncoder.appendField(sb, event.getThreadName());
+			sb.append(',');
+			MonitoringRecordEncoder.appendField(sb, event.getLoggerName());
+			sb.append(',');
+			MonitoringRecordEncoder.appendField(sb, event.getLocationInformation().fullInfo == null ? "" : event.getLocationInformation().fullInfo);
+			sb.append(',');
+			MonitoringRecordEncoder.appendField(sb, event.getPattern() == null ? "" : event.getPattern());
+			sb.append(',');
+			MonitoringRecordEncoder.appendField(sb, event.getRenderedMessage());
+			sb.append(',');
+			String[] s = event.getThrowableStrRep();
+			if (s != null) {
+				StringBuilder t = new StringBuilder();
+				for (int i = 0; i < s.length; i++) {
+					if (i > 0) {
+						t.append('\n');
+					}
+					t.append(s[i]);
+				}
+				MonitoringRecordEncoder.appendField(sb, t.toString());
+			}
+			sb.append(Layout.LINE_SEP);
+			out.write(sb.toString());
+		}
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean csv = false;
+		String pattern = Configurator.PATTERN_LAYOUT.getConversionPattern();
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if ("-csv".equals(args[i])) {
+				csv = true;
+			} else if ("-pattern".equals(args[i]) && i + 1 < args.length) {
+				pattern = args[++i];
+			} else {
+				break;
+			}
+		}
+		if (i >= args.length) {
+			System.err.println("Usage: java " + FQCN + " [-csv | -pattern <conversion pattern>] <file> [<output file>]");
+			System.exit(1);
+		}
+		InputStream in = new FileInputStream(args[i]);
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				i + 1 < args.length ? (java.io.OutputStream) new FileOutputStream(args[i + 1]) : System.out, "UTF-8"), 64 * 1024);
+		try {
+			if (csv) {
+				renderCsv(in, out);
+			} else {
+				renderText(in, out, pattern);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
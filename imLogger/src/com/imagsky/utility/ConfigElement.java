@@ -0,0 +1,193 @@
+package com.imagsky.utility;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+   <p><code>ConfigElement</code> is one element of a parsed configuration file: its tag name,
+   its attributes and its nested elements. Text content is ignored.
+
+   <p>The file is read with a streaming (StAX) parser and only these elements are kept, no DOM is
+   built. An element is immutable, so a parsed configuration is cached and shared by the
+   {@link Configurator} instances of a logger, see {@link ConfigurationCache}.
+ */
+public final class ConfigElement {
+
+	private static final ConfigElement[] NO_CHILDREN = new ConfigElement[0];
+	private static final XMLInputFactory FACTORY = newFactory();
+
+	private final String tagName;
+	/** Attribute names in sorted order, with their values. */
+	private final String[] names;
+	private final String[] values;
+	private final ConfigElement[] children;
+	private String definition;
+
+	private ConfigElement(String tagName, String[] names, String[] values, ConfigElement[] children) {
+		this.tagName = tagName;
+		this.names = names;
+		this.values = values;
+		this.children = children;
+	}
+
+	public String getTagName() {
+		return tagName;
+	}
+
+	/** The value of the attribute, an empty string if it is not set, like <code>org.w3c.dom.Element</code>. */
+	public String getAttribute(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return values[i];
+			}
+		}
+		return "";
+	}
+
+	public int getChildCount() {
+		return children.length;
+	}
+
+	public ConfigElement getChild(int index) {
+		return children[index];
+	}
+
+	/** The element with its attributes, sorted by name, and its nested elements in a canonical form. */
+	public String getDefinition() {
+		String d = definition;
+		if (d == null) {
+			StringBuffer sb = new StringBuffer();
+			appendDefinition(sb);
+			definition = d = sb.toString();
+		}
+		return d;
+	}
+
+	private void appendDefinition(StringBuffer sb) {
+		sb.append('<').append(tagName);
+		for (int i = 0; i < names.length; i++) {
+			sb.append(' ').append(names[i]).append("=\"").append(values[i]).append('"');
+		}
+		sb.append('>');
+		for (int i = 0; i < children.length; i++) {
+			children[i].appendDefinition(sb);
+		}
+		sb.append("</").append(tagName).append('>');
+	}
+
+	public String toString() {
+		return getDefinition();
+	}
+
+	/** Parse a configuration file, the stream is not closed. */
+	public static ConfigElement parse(InputStream in) throws XMLStreamException {
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+		try {
+			return parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Parse a configuration file, the reader is not closed. */
+	public static ConfigElement parse(Reader in) throws XMLStreamException {
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+		try {
+			return parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static ConfigElement parse(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+				return element(reader);
+			}
+		}
+		throw new XMLStreamException("No root element.");
+	}
+
+	/** The copy of a DOM element and its nested elements, for the callers of the {@link Configurator} methods taking a DOM element. */
+	public static ConfigElement of(Element element) {
+		NamedNodeMap attributes = element.getAttributes();
+		TreeMap sorted = new TreeMap();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Node attribute = attributes.item(i);
+			sorted.put(attribute.getNodeName(), attribute.getNodeValue());
+		}
+		ArrayList children = null;
+		NodeList nodes = element.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				if (children == null) {
+					children = new ArrayList();
+				}
+				children.add(of((Element) node));
+			}
+		}
+		return create(element.getTagName(), sorted, children);
+	}
+
+	/** Read the element at the current <code>START_ELEMENT</code> up to its <code>END_ELEMENT</code>. */
+	private static ConfigElement element(XMLStreamReader reader) throws XMLStreamException {
+		String tagName = reader.getLocalName();
+		int count = reader.getAttributeCount();
+		TreeMap sorted = new TreeMap();
+		for (int i = 0; i < count; i++) {
+			sorted.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		}
+		ArrayList children = null;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if (children == null) {
+					children = new ArrayList();
+				}
+				children.add(element(reader));
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+		return create(tagName, sorted, children);
+	}
+
+	/** @param attributes the attribute values by name, sorted.
+	 * @param children the nested elements, <code>null</code> if there are none. */
+	private static ConfigElement create(String tagName, TreeMap attributes, ArrayList children) {
+		String[] names = new String[attributes.size()];
+		String[] values = new String[names.length];
+		int i = 0;
+		for (Object o : attributes.entrySet()) {
+			Map.Entry entry = (Map.Entry) o;
+			names[i] = (String) entry.getKey();
+			values[i] = (String) entry.getValue();
+			i++;
+		}
+		ConfigElement[] c = children == null ? NO_CHILDREN : (ConfigElement[]) children.toArray(new ConfigElement[children.size()]);
+		return new ConfigElement(tagName, names, values, c);
+	}
+
+	private static XMLInputFactory newFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		//the DTD only documents the format, it is neither loaded nor validated
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		return factory;
+	}
+}
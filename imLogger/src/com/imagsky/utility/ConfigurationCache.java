@@ -0,0 +1,155 @@
+package com.imagsky.utility;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.log4j.helpers.LogLog;
+
+/**
+   <p>Cache of the parsed configuration files, keyed by path. An entry is used as long as the
+   modification time and the length of the file are unchanged, so a logger created again, or
+   many loggers sharing a file, parse it once.
+
+   <p>When the system property <code>imLogger.preload</code> is <code>true</code>, the first
+   configuration loaded from <code>sys.propFolder</code> parses all the configuration files of
+   the folder in parallel, see {@link Configurator#preload()}.
+ */
+final class ConfigurationCache {
+
+	static final String PRELOAD_PROPERTY = "imLogger.preload";
+	private static final String SUFFIX = ".xml";
+
+	/** A parsed file with the attributes it was parsed with. */
+	private static final class Entry {
+		final long modified;
+		final long length;
+		final ConfigElement root;
+
+		Entry(long modified, long length, ConfigElement root) {
+			this.modified = modified;
+			this.length = length;
+			this.root = root;
+		}
+	}
+
+	private static final ConcurrentHashMap CACHE = new ConcurrentHashMap();
+	private static volatile boolean preloaded = false;
+
+	private ConfigurationCache() {
+	}
+
+	/** The configuration file of <code>loggerName</code> in <code>sys.propFolder</code>. */
+	static File file(String loggerName) {
+		return new File(System.getProperty("sys.propFolder") + loggerName + SUFFIX);
+	}
+
+	/**
+	 * The parsed content of <code>file</code>, from the cache unless the file has changed or
+	 * <code>reparse</code> is set.
+	 */
+	static ConfigElement get(File file, boolean reparse) throws IOException, XMLStreamException {
+		String key = file.getAbsolutePath();
+		long modified = file.lastModified();
+		long length = file.length();
+		if (!reparse) {
+			Entry e = (Entry) CACHE.get(key);
+			if (e != null && e.modified == modified && e.length == length && modified != 0) {
+				return e.root;
+			}
+		}
+		if (!file.isFile()) {
+			CACHE.remove(key);
+			throw new FileNotFoundException(file.getPath() + " (No such file)");
+		}
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 8192);
+		ConfigElement root;
+		try {
+			root = ConfigElement.parse(in);
+		} finally {
+			in.close();
+		}
+		CACHE.put(key, new Entry(modified, length, root));
+		LogLog.debug("Parsed configuration file [" + file + "].");
+		return root;
+	}
+
+	/** Preload the folder once if the <code>imLogger.preload</code> property is set. */
+	static void preloadIfEnabled() {
+		if (!preloaded && Boolean.getBoolean(PRELOAD_PROPERTY)) {
+			synchronized (ConfigurationCache.class) {
+				if (!preloaded) {
+					preload();
+				}
+			}
+		}
+	}
+
+	/** Parse all the configuration files of <code>sys.propFolder</code> in parallel, returns the number of files parsed. */
+	static synchronized int preload() {
+		preloaded = true;
+		String propFolder = System.getProperty("sys.propFolder");
+		if (propFolder == null) {
+			LogLog.warn("sys.propFolder is not set, no configuration file is preloaded.");
+			return 0;
+		}
+		//sys.propFolder may end with a file name prefix, as in ConfigurationWatcher
+		File probe = new File(propFolder + "_" + SUFFIX).getAbsoluteFile();
+		final String prefix = probe.getName().substring(0, probe.getName().length() - 1 - SUFFIX.length());
+		File[] files = probe.getParentFile().listFiles();
+		if (files == null) {
+			LogLog.warn("Cannot list [" + probe.getParentFile() + "], no configuration file is preloaded.");
+			return 0;
+		}
+		List tasks = new ArrayList();
+		for (int i = 0; i < files.length; i++) {
+			final File f = files[i];
+			String name = f.getName();
+			if (name.startsWith(prefix) && name.endsWith(SUFFIX) && f.isFile()) {
+				tasks.add(new Callable() {
+					public Object call() {
+						try {
+							get(f, false);
+						} catch (Exception e) {
+							LogLog.warn("Cannot preload [" + f + "]: " + e);
+						}
+						return null;
+					}
+				});
+			}
+		}
+		if (tasks.isEmpty()) {
+			return 0;
+		}
+		int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "imLogger-ConfigurationPreload");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long start = System.currentTimeMillis();
+		try {
+			pool.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+		}
+		LogLog.debug("Preloaded " + tasks.size() + " configuration files in " + (System.currentTimeMillis() - start) + " ms.");
+		return tasks.size();
+	}
+}
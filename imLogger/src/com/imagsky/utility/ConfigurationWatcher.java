@@ -0,0 +1,207 @@
+package com.imagsky.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.helpers.LogLog;
+
+/**
+   <p><code>ConfigurationWatcher</code> reloads the configuration file of a logger when the
+   file changes, see {@link Configurator#reload(String)}.
+
+   <p>The watcher is started by the first logger which is configured while the system property
+   <code>imLogger.watch</code> is <code>true</code>, or by calling {@link #start()}. It watches the
+   <code>sys.propFolder</code> folder for the <code>&lt;name&gt;.xml</code> files of the configured loggers.
+
+   <p>A destination removed by a reload is detached at once and closed when no thread is
+   writing to the destinations it was taken from any more, see {@link DestinationSnapshot},
+   so the events which are being written to it are not lost. A destination still in use after
+   <code>imLogger.retireDelay</code> milliseconds (default 60000) is closed with a warning.
+ */
+public final class ConfigurationWatcher implements Runnable {
+
+	public static final String WATCH_PROPERTY = "imLogger.watch";
+	public static final String RETIRE_DELAY_PROPERTY = "imLogger.retireDelay";
+
+	/** Time to wait for more changes, editors often write a file in several steps. */
+	private static final long QUIET_PERIOD = 200;
+	/** Time between two checks of the writers of a retired snapshot. */
+	private static final long RETIRE_POLL = 10;
+	private static final String SUFFIX = ".xml";
+
+	private static final Set LOGGERS = ConcurrentHashMap.newKeySet();
+	private static ConfigurationWatcher watcher;
+	private static ScheduledExecutorService retirer;
+
+	private final WatchService watchService;
+	private final File folder;
+	private final String prefix;
+
+	private ConfigurationWatcher(WatchService watchService, File folder, String prefix) {
+		this.watchService = watchService;
+		this.folder = folder;
+		this.prefix = prefix;
+	}
+
+	/** Watch the configuration file of <code>loggerName</code>, starting the watcher if it is enabled. */
+	static void register(String loggerName) {
+		LOGGERS.add(loggerName);
+		if (Boolean.getBoolean(WATCH_PROPERTY)) {
+			start();
+		}
+	}
+
+	/** Start watching the configuration files, nothing is done when the watcher is running. */
+	public static synchronized void start() {
+		if (watcher != null) {
+			return;
+		}
+		String propFolder = System.getProperty("sys.propFolder");
+		if (propFolder == null) {
+			LogLog.warn("sys.propFolder is not set, configuration files are not watched.");
+			return;
+		}
+		//the configuration file is sys.propFolder + name + ".xml", sys.propFolder may end with a file name prefix
+		File probe = new File(propFolder + "_" + SUFFIX).getAbsoluteFile();
+		File folder = probe.getParentFile();
+		String prefix = probe.getName().substring(0, probe.getName().length() - 1 - SUFFIX.length());
+		try {
+			WatchService ws = FileSystems.getDefault().newWatchService();
+			folder.toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			watcher = new ConfigurationWatcher(ws, folder, prefix);
+		} catch (IOException e) {
+			LogLog.error("Cannot watch [" + folder + "].", e);
+			return;
+		}
+		Thread t = new Thread(watcher, "imLogger-ConfigurationWatcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/** Stop watching the configuration files. */
+	public static synchronized void stop() {
+		if (watcher == null) {
+			return;
+		}
+		try {
+			watcher.watchService.close();
+		} catch (IOException e) {
+			LogLog.warn("Cannot close the configuration watcher.", e);
+		}
+		watcher = null;
+	}
+
+	/** 
+	 * Close <code>appenders</code> once the events in flight have been written to them, i.e. once 
+	 * <code>snapshot</code> is drained. They are closed at once when there is no snapshot, the 
+	 * events then go through log4j, which detaches an appender only between two events.
+	 */
+	static void retire(final Appender[] appenders, final DestinationSnapshot snapshot) {
+		if (snapshot == null) {
+			close(appenders);
+			return;
+		}
+		final long deadline = System.currentTimeMillis() + Long.getLong(RETIRE_DELAY_PROPERTY, 60000).longValue();
+		synchronized (ConfigurationWatcher.class) {
+			if (retirer == null) {
+				ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "imLogger-DestinationRetirer");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+				retirer = executor;
+			}
+		}
+		retirer.schedule(new Runnable() {
+			public void run() {
+				if (snapshot.isDrained()) {
+					close(appenders);
+				} else if (System.currentTimeMillis() >= deadline) {
+					for (int i = 0; i < appenders.length; i++) {
+						LogLog.warn("Closing destination [" + appenders[i].getName() + "] which is still being written.");
+					}
+					close(appenders);
+				} else {
+					retirer.schedule(this, RETIRE_POLL, TimeUnit.MILLISECONDS);
+				}
+			}
+		}, RETIRE_POLL, TimeUnit.MILLISECONDS);
+	}
+
+	private static void close(Appender[] appenders) {
+		for (int i = 0; i < appenders.length; i++) {
+			appenders[i].close();
+			LogLog.debug("Closed retired destination [" + appenders[i].getName() + "].");
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				Set changed = new HashSet();
+				WatchKey key = watchService.take();
+				do {
+					collect(key, changed);
+					key.reset();
+				} while ((key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null);
+				Iterator i = changed.iterator();
+				while (i.hasNext()) {
+					reload((String) i.next());
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			//stopped
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void collect(WatchKey key, Set changed) {
+		Iterator i = key.pollEvents().iterator();
+		while (i.hasNext()) {
+			WatchEvent event = (WatchEvent) i.next();
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				changed.addAll(LOGGERS);
+				continue;
+			}
+			String fileName = ((Path) event.context()).getFileName().toString();
+			if (fileName.startsWith(prefix) && fileName.endsWith(SUFFIX)) {
+				String loggerName = fileName.substring(prefix.length(), fileName.length() - SUFFIX.length());
+				if (LOGGERS.contains(loggerName)) {
+					changed.add(loggerName);
+				}
+			}
+		}
+	}
+
+	private void reload(String loggerName) {
+		if (!new File(folder, prefix + loggerName + SUFFIX).exists()) {
+			return;
+		}
+		try {
+			Configurator.reload(loggerName);
+			LogLog.debug("Reloaded the configuration of [" + loggerName + "].");
+		} catch (Exception e) {
+			LogLog.error("Cannot reload the configuration of [" + loggerName + "].", e);
+		}
+	}
+}
@@ -1,32 +1,47 @@
 package com.imagsky.utility;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncRingBufferAppender;
+import org.apache.log4j.BackgroundRollingFileAppender;
+import org.apache.log4j.BatchedConsoleAppender;
+import org.apache.log4j.BinaryLogAppender;
+import org.apache.log4j.CompiledPatternLayout;
 import org.apache.log4j.ConsoleAppender;
-import org.apache.log4j.DailyRollingFileAppender;
-import org.apache.log4j.FileAppender;
+import org.apache.log4j.FlightRecorderAppender;
+import org.apache.log4j.GroupCommitFileAppender;
+import org.apache.log4j.JsonLayout;
+import org.apache.log4j.Layout;
 import org.apache.log4j.Level;
+import org.apache.log4j.MappedFileAppender;
 import org.apache.log4j.PatternLayout;
-import org.apache.log4j.StandaloneRollingFileAppender;
+import org.apache.log4j.ReplacingDestination;
+import org.apache.log4j.SharedFileAppender;
+import org.apache.log4j.SystemStreamAppender;
 import org.apache.log4j.WriterAppender;
 import org.apache.log4j.config.PropertySetter;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.AppenderAttachable;
 import org.apache.log4j.varia.DenyAllFilter;
-import org.apache.log4j.varia.LevelMatchFilter;
-import org.w3c.dom.Document;
+import org.apache.log4j.varia.DuplicateFilter;
+import org.apache.log4j.varia.LevelRangeFilter;
+import org.apache.log4j.varia.RateLimitFilter;
+import org.apache.log4j.varia.SuppressingFilter;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 
@@ -39,17 +54,38 @@ import org.xml.sax.InputSource;
    <code>Configurator.configure() </code>
    to make the change effective.
 
+   <p>The configuration file is read into {@link ConfigElement}s and the protected element
+   methods are called with them. The methods taking an <code>org.w3c.dom.Element</code> are
+   kept for the subclasses which call them, they copy the element and delegate; overriding
+   one of them no longer changes how a configuration file is applied.
+
   @author Jason Mak */
 
 public class Configurator {
 
 	protected final static PatternLayout PATTERN_LAYOUT = new PatternLayout("%d %-5p [%t] %C{2} (%F:%L) - %m%n");
 	protected final static DenyAllFilter DENY_ALL_FILTER = new DenyAllFilter();
+	/** A conversion character which needs the location of the caller: %C, %F, %L, %l or %M. */
+	private final static Pattern LOCATION_CONVERSION = Pattern.compile("(?<!%)%[-.0-9]*[CFLlM]");
 	
 	protected Level level;  
 	protected HashMap appenders;
 	protected boolean isReset = false;
 	protected String loggerName = null;
+	/** Definition of each destination built from the configuration file, to tell which ones a reload changed. */
+	protected HashMap definitions;
+	/** The configuration last applied to the logger, reused by a reload for the unchanged destinations. */
+	protected Configurator live;
+	protected boolean isLoaded = false;
+	/** Logger level filters, see {@link PreFilter}. */
+	protected ArrayList preFilters;
+	/** The live destination replaced by the one being created, see {@link ReplacingDestination}. */
+	private Appender replaced;
+
+	private static final ConcurrentHashMap LIVE = new ConcurrentHashMap();
+	private static final ConcurrentHashMap PRE_FILTERS = new ConcurrentHashMap();
+	private static final ConcurrentHashMap DESTINATIONS = new ConcurrentHashMap();
+	private static volatile int generation;
 
 	public final static int SYSTEM_ERR = 0;
 	public final static int SYSTEM_OUT = 1;
@@ -57,10 +93,13 @@ public class Configurator {
 	public Configurator (String loggerName) { 
 		this.loggerName = loggerName;
 		this.appenders = new HashMap();
+		this.definitions = new HashMap();
+		this.preFilters = new ArrayList();
 		this.level = null;
 	}
 	/** Make the change of the logger effective */
 	public void configure() {
+		LIVE.put(this.loggerName, this);
 		org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(this.loggerName);
 		//Don't write log to RootLogger
 		logger.setAdditivity(false);
@@ -77,8 +116,129 @@ public class Configurator {
 				appender.setLayout(PATTERN_LAYOUT);
 
 			logger.addAppender(appender);
+			if (LoggerMetrics.ENABLED) {
+				Metrics.registerDestination(this.loggerName, appender);
+			}
+			Metrics.registerFlightRecorders(this.loggerName, appender);
+		}
+		installPreFilters();
+		DestinationSnapshot replaced = installDestinations(logger);
+		generation++;
+		Logger.refreshEffectiveLevels();
+		if (replaced != null) {
+			ConfigurationWatcher.retire(new Appender[0], replaced);
+		}
+		ConfigurationWatcher.register(this.loggerName);
+	}
+	/**
+	 * Load the configuration file of a configured logger again and apply only what changed:
+	 * the level is set in place, new or changed destinations are added and the destinations 
+	 * which are no longer defined are detached and closed once the events in flight are written.
+	 * Unchanged destinations keep running untouched. A file which cannot be parsed is ignored.
+	 */
+	public static void reload(String loggerName) throws IOException {
+		Configurator configurator = new Configurator(loggerName);
+		configurator.live = (Configurator) LIVE.get(loggerName);
+		//the file is parsed again even if its time and length look unchanged
+		configurator.loadConfigurationFile(ConfigurationCache.file(loggerName), true);
+		configurator.reconfigure();
+	}
+	/** Apply this configuration on top of the live one, see {@link #reload(String)}. */
+	protected void reconfigure() {
+		if (!this.isLoaded) {
+			LogLog.error("Configuration of [" + this.loggerName + "] could not be loaded, keeping the current one.");
+			return;
+		}
+		if (this.live == null) {
+			configure();
+			return;
+		}
+		LIVE.put(this.loggerName, this);
+		org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(this.loggerName);
+		logger.setLevel(this.level);
+		Iterator i = this.appenders.values().iterator();
+		while (i.hasNext()) {
+			Appender appender = (Appender)i.next();
+			if (!logger.isAttached(appender)) {
+				if (appender.getLayout() == null) 
+					appender.setLayout(PATTERN_LAYOUT);
+				logger.addAppender(appender);
+				if (LoggerMetrics.ENABLED) {
+					Metrics.registerDestination(this.loggerName, appender);
+				}
+				Metrics.registerFlightRecorders(this.loggerName, appender);
+				LogLog.debug("Added destination [" + appender.getName() + "] to [" + this.loggerName + "].");
+			}
+		}
+		ArrayList removed = new ArrayList();
+		i = this.live.appenders.values().iterator();
+		while (i.hasNext()) {
+			Appender appender = (Appender)i.next();
+			if (this.appenders.get(appender.getName()) != appender) {
+				logger.removeAppender(appender);
+				removed.add(appender);
+				if (LoggerMetrics.ENABLED && !this.appenders.containsKey(appender.getName())) {
+					Metrics.unregisterDestination(this.loggerName, appender);
+				}
+				if (!this.appenders.containsKey(appender.getName())) {
+					Metrics.unregisterFlightRecorders(this.loggerName, appender);
+				}
+				LogLog.debug("Removed destination [" + appender.getName() + "] from [" + this.loggerName + "].");
+			}
+		}
+		this.live = null;
+		installPreFilters();
+		DestinationSnapshot replaced = installDestinations(logger);
+		generation++;
+		Logger.refreshEffectiveLevels();
+		//the removed destinations are closed once nobody writes to the replaced snapshot
+		ConfigurationWatcher.retire((Appender[]) removed.toArray(new Appender[removed.size()]), replaced);
+	}
+	/** Changes whenever a logger is configured or reloaded, so cached destinations can be refreshed. */
+	static int generation() {
+		return generation;
+	}
+	/** Compile the logger level filters, they are picked up by {@link Logger#refreshEffectiveLevels()}. */
+	protected void installPreFilters() {
+		PreFilter[] compiled = PreFilter.compile(this.loggerName, this.preFilters);
+		if (compiled == null) {
+			PRE_FILTERS.remove(this.loggerName);
+		} else {
+			PRE_FILTERS.put(this.loggerName, compiled);
 		}
 	}
+	/** The compiled logger level filters of <code>loggerName</code>, <code>null</code> if there are none. */
+	static PreFilter[] preFilters(String loggerName) {
+		return (PreFilter[]) PRE_FILTERS.get(loggerName);
+	}
+	/** 
+	 * Take a copy of the destinations of the logger, which {@link Logger} calls directly instead of going through 
+	 * the synchronized <code>callAppenders</code> of log4j. A logger which is additive or has no destination 
+	 * keeps going through log4j. The copy is replaced, never changed, by the next configuration.
+	 * @return the replaced copy, retired, or <code>null</code> if there was none.
+	 */
+	DestinationSnapshot installDestinations(org.apache.log4j.Logger logger) {
+		ArrayList list = new ArrayList();
+		Enumeration e = logger.getAllAppenders();
+		while (e.hasMoreElements()) {
+			list.add(e.nextElement());
+		}
+		DestinationSnapshot replaced = (DestinationSnapshot) DESTINATIONS.get(this.loggerName);
+		if (logger.getAdditivity() || list.isEmpty()) {
+			DESTINATIONS.remove(this.loggerName);
+		} else {
+			Appender[] appenders = (Appender[]) list.toArray(new Appender[list.size()]);
+			DESTINATIONS.put(this.loggerName, new DestinationSnapshot(appenders, replaced));
+		}
+		if (replaced != null) {
+			replaced.retire();
+		}
+		return replaced;
+	}
+	/** The destinations of <code>loggerName</code> to call directly, <code>null</code> to go through log4j. */
+	static DestinationSnapshot destinations(String loggerName) {
+		return (DestinationSnapshot) DESTINATIONS.get(loggerName);
+	}
 
 	/** Load default xml configuration file for the logger 
 	 * -- Remove all system dependent check to determine the xml. Refer to web.xml instead.
@@ -88,9 +248,8 @@ public class Configurator {
 	
   public void loadConfigurationFile () throws IOException {
     
-    File f = new File(System.getProperty("sys.propFolder") + this.loggerName + ".xml");
-	System.out.println(System.getProperty("sys.propFolder") + this.loggerName + ".xml exist  = "+ f.exists());
-	loadConfigurationFile(new FileInputStream(f));
+    ConfigurationCache.preloadIfEnabled();
+    loadConfigurationFile(ConfigurationCache.file(this.loggerName), false);
     /***
     if (osName != null && osName.indexOf("Windows") >= 0) {
     	//for windows user, the configuration file should be placed in current dir.
@@ -107,52 +266,74 @@ public class Configurator {
     	loadConfigurationFile(new FileInputStream(f));
     }***/
   }
-  /** Load <code>inputStream</code> which points to xml configuration file */
+  /** Load <code>inputStream</code> which points to xml configuration file, the stream is not closed. */
   public void loadConfigurationFile(InputStream inputStream) {
     loadConfigurationFile(new InputSource(inputStream));
   }
   /** Specify the filename of the xml configuration file */
 	public void loadConfigurationFile(String filename) throws IOException {
-		FileInputStream fis = null;
-		fis = new FileInputStream(filename);
-		loadConfigurationFile(fis);
+		loadConfigurationFile(new File(filename), false);
+	}
+	/** Load a configuration file through the {@link ConfigurationCache}, it is parsed again when <code>reparse</code> is set. */
+	protected void loadConfigurationFile(File file, boolean reparse) throws IOException {
+		LogLog.debug("Loading [" + file + "] for logger [" + this.loggerName + "].");
+		ConfigElement root;
+		try {
+			root = ConfigurationCache.get(file, reparse);
+		} catch (XMLStreamException e) {
+			LogLog.error("Cannot parse [" + file + "] for logger [" + this.loggerName + "].", e);
+			return;
+		}
+		parse(root);
+		this.isLoaded = true;
 	}
 	protected void loadConfigurationFile(InputSource inputSource) {
 		try {
-			DocumentBuilderFactory dfactory = DocumentBuilderFactory.newInstance();
-			//dfactory.setValidating(true);
-			DocumentBuilder docBuilder = dfactory.newDocumentBuilder();
-			//docBuilder.setErrorHandler(new SAXErrorHandler());
-			System.out.println(inputSource.toString());
-			Document doc = docBuilder.parse(inputSource);
-	    parse(doc.getDocumentElement());
-	  } catch (Exception e) {
-	  	e.printStackTrace();
-	  }
-  }
-	protected void parse (Element element) {
-		String   tagName = null;
-	    Element  currentElement = null;
-	    Node     currentNode = null;
-	    NodeList children = element.getChildNodes();
-	    final int length = children.getLength();
-			
+			ConfigElement root;
+			if (inputSource.getCharacterStream() != null) {
+				root = ConfigElement.parse(inputSource.getCharacterStream());
+			} else if (inputSource.getByteStream() != null) {
+				root = ConfigElement.parse(inputSource.getByteStream());
+			} else {
+				loadConfigurationFile(new File(inputSource.getSystemId()), false);
+				return;
+			}
+			parse(root);
+			this.isLoaded = true;
+		} catch (Exception e) {
+			LogLog.error("Cannot parse the configuration of logger [" + this.loggerName + "].", e);
+		}
+	}
+	/** 
+	 * Parse all the configuration files in <code>sys.propFolder</code> in parallel, so the loggers created 
+	 * afterwards find them in the cache. Also done by the first logger when the system property 
+	 * <code>imLogger.preload</code> is <code>true</code>. 
+	 * @return the number of files parsed.
+	 */
+	public static int preload() {
+		return ConfigurationCache.preload();
+	}
+	protected void parse (ConfigElement element) {
 			if ("true".equals(element.getAttribute("reset"))) 
 				setClear();
 	
+			final int length = element.getChildCount();
 			for (int loop = 0; loop < length; loop++) {
-				currentNode = children.item(loop);
-				if (currentNode.getNodeType() == Node.ELEMENT_NODE) {
-					currentElement = (Element) currentNode;
-					tagName = currentElement.getTagName();
-					if (tagName.equals("level")) {
-						setLevel(currentElement);
-					} else if (tagName.equals("dest")) {
-						setDestination(currentElement);
-					}
+				ConfigElement currentElement = element.getChild(loop);
+				String tagName = currentElement.getTagName();
+				if (tagName.equals("level")) {
+					setLevel(currentElement);
+				} else if (tagName.equals("dest")) {
+					setDestination(currentElement);
+				} else if (tagName.equals("filter")) {
+					setPreFilter(currentElement);
 				}
 			}
 	}
+	/** Same as {@link #parse(ConfigElement)} for a DOM element, which is copied first. */
+	protected void parse (Element element) {
+		parse(ConfigElement.of(element));
+	}
 	protected void reset() {
 		org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(this.loggerName);
 		logger.removeAllAppenders();				
@@ -167,7 +348,8 @@ public class Configurator {
  * 
  * Creation date: (07-02-2002 02:33 PM)
  * @param name It is the name of the destination to which the filter add. 
- * @param filterType It is the type of the filter. In this version, only "LevelMatchFilter" is accept
+ * @param filterType It is the type of the filter. In this version, only "LevelMatchFilter" is accept, 
+ * the <code>RATE_LIMIT</code> and <code>DUPLICATE</code> filters need parameters and are set in the configuration file
  * @param filterValue It is the logging level which is matched by this filter 
  */
 public void setDestFilter(String name, String filterType, String filterValue) {
@@ -187,34 +369,81 @@ public void setDestFilter(String name, String filterType, String filterValue) {
 protected void setDestFilter(Appender appender, String filterType, String filterValue) {
 	
 	if ("LevelMatchFilter".equals(filterType)) {
-		LevelMatchFilter f = new LevelMatchFilter();
-		f.setLevelToMatch(filterValue);
+		//deny the other levels and stay neutral on a match, so the filters after this one are still consulted
+		Level l = OptionConverter.toLevel(filterValue, null);
+		if (l == null) {
+			appender.addFilter(new DenyAllFilter());
+			return;
+		}
+		LevelRangeFilter f = new LevelRangeFilter();
+		f.setLevelMin(l);
+		f.setLevelMax(l);
+		f.setAcceptOnMatch(false);
 		appender.addFilter(f);	
-		appender.addFilter(DENY_ALL_FILTER);
 	}
 }
 /**
  * Insert the method's description here.
  * Creation date: (07-02-2002 03:04 PM)
  */
-protected void setDestFilter(Appender appender, Element element) {
+protected void setDestFilter(Appender appender, ConfigElement element) {
 	
 	String filterType = element.getAttribute("type");
 	String filterValue = element.getAttribute("value");
 
-	setDestFilter(appender, filterType, filterValue);
+	SuppressingFilter filter;
+	if ("RATE_LIMIT".equals(filterType)) {
+		filter = new RateLimitFilter();
+	} else if ("DUPLICATE".equals(filterType)) {
+		filter = new DuplicateFilter();
+	} else {
+		setDestFilter(appender, filterType, filterValue);
+		return;
+	}
+	PropertySetter propSetter = new PropertySetter(filter);
+	setParameters(element, propSetter);
+	propSetter.activate();
+	filter.attach(appender);
+	appender.addFilter(filter);
 	
 }
+/** Same as {@link #setDestFilter(Appender, ConfigElement)} for a DOM element. */
+protected void setDestFilter(Appender appender, Element element) {
+	setDestFilter(appender, ConfigElement.of(element));
+}
+	/** 
+	 * Add a logger level filter, which is checked before the logging event is created. 
+	 * The filters are checked in the order they are added, see {@link PreFilter}.
+	 */
+	public void addPreFilter(PreFilter filter) {
+		this.preFilters.add(filter);
+	}
+	protected void setPreFilter(ConfigElement element) {
+		PreFilter filter = PreFilter.forType(element.getAttribute("type"));
+		if (filter == null) {
+			LogLog.warn("Unknown filter type [" + element.getAttribute("type") + "] for logger [" + this.loggerName + "].");
+			return;
+		}
+		PropertySetter propSetter = new PropertySetter(filter);
+		setParameters(element, propSetter);
+		addPreFilter(filter);
+	}
+	/** Same as {@link #setPreFilter(ConfigElement)} for a DOM element. */
+	protected void setPreFilter(Element element) {
+		setPreFilter(ConfigElement.of(element));
+	}
 	/** Add new logging destination to system out or error.
 	
 	@param name the name of the destination. 
 	@param val recognized values are <code>Configurator.SYSTEM_OUT</code> and <code>Configurator.SYSTEM_ERR</code>. Any other value will be ignored.
   */
 	public void setDestination (String name, int val) {
-		ConsoleAppender appender = new ConsoleAppender();
+		SystemStreamAppender appender = new SystemStreamAppender();
+		appender.setName(name);
 		switch (val) {
 			case SYSTEM_ERR: appender.setTarget(ConsoleAppender.SYSTEM_ERR);
 		}
+		appender.activateOptions();
 		setDestination(appender);
 	}
 	/** Add new logging destination to a <code>Writer</code>.
@@ -240,80 +469,216 @@ protected void setDestFilter(Appender appender, Element element) {
 	@param rolling the rollover frequency of the log file. Only "DAILY", "WEEKLY" and "MONTHLY" are allowed.
   */
 	public void setDestination (String name, String filename, String rolling) {
-		FileAppender appender = null;
+		SharedFileAppender appender = new SharedFileAppender();
 		if (rolling != null) {
-			String datePattern = getRollingPattern(rolling);
-			appender = new DailyRollingFileAppender();
-			((DailyRollingFileAppender)appender).setDatePattern(datePattern);
-		} else {
-			appender = new FileAppender();
+			appender.setDatePattern(getRollingPattern(rolling));
 		}
 		appender.setName(name);
 		appender.setFile(filename);
 		appender.setAppend(true);
+		appender.activateOptions();
 		setDestination(appender);
 	}
 	protected void setDestination (Appender appender) {
 		this.appenders.put(appender.getName(), appender);
 	}
+	protected void setDestination (ConfigElement element) {
+		String definition = definition(element);
+		String destName = element.getAttribute("name");
+		this.definitions.put(destName, definition);
+		if (this.live != null && definition.equals(this.live.definitions.get(destName))) {
+			Appender appender = (Appender) this.live.appenders.get(destName);
+			if (appender != null) {
+				setDestination(appender);
+				return;
+			}
+		}
+		this.replaced = this.live == null ? null : (Appender) this.live.appenders.get(destName);
+		try {
+			setDestination(createDestination(element));
+		} finally {
+			this.replaced = null;
+		}
+	}
+	/** Same as {@link #setDestination(ConfigElement)} for a DOM element. */
 	protected void setDestination (Element element) {
+		setDestination(ConfigElement.of(element));
+	}
+	/** The element with its attributes and nested elements in a canonical form. */
+	protected static String definition (ConfigElement element) {
+		return element.getDefinition();
+	}
+	/** Same as {@link #definition(ConfigElement)} for a DOM element. */
+	protected static String definition (Element element) {
+		return definition(ConfigElement.of(element));
+	}
+	/** Build the appender described by a <code>dest</code> element without registering it.
+	 * Nested <code>dest</code> elements are attached to the appender when it accepts child destinations, e.g. <code>ASYNC</code>.
+	 * On a reload a {@link ReplacingDestination} is given the live destination of the same name before it is activated. */
+	protected Appender createDestination (ConfigElement element) {
 		String destType = element.getAttribute("type");
 		String destName = element.getAttribute("name");
+		Appender previous = this.replaced;
+		this.replaced = null;
 
 		Appender appender = null;
 		if (destType.equals("FILE")) {
+			//the loggers writing to the same file share one handle, see SharedFileAppender
+			appender = new SharedFileAppender();
 			String rolling = element.getAttribute("rolling");
 			String standalone = element.getAttribute("standalone");
 			if ("true".equals(standalone)) {
-				appender = new StandaloneRollingFileAppender();
-			} else if (rolling != "") {
-				appender = new DailyRollingFileAppender();
-				String datePattern = getRollingPattern(rolling);
-				((DailyRollingFileAppender)appender).setDatePattern(datePattern);
-			 } else {
-			 	appender = new FileAppender();
-			 }
-			 ((FileAppender)appender).setAppend(true);
+				((SharedFileAppender)appender).setRollOnStart(true);
+			} else if (rolling.length() > 0) {
+				((SharedFileAppender)appender).setDatePattern(getRollingPattern(rolling));
+			}
+			((SharedFileAppender)appender).setAppend(true);
+		} else if (destType.equals("ASYNC")) {
+			appender = new AsyncRingBufferAppender();
+		} else if (destType.equals("GROUP_COMMIT")) {
+			appender = new GroupCommitFileAppender();
+		} else if (destType.equals("MMAP")) {
+			appender = new MappedFileAppender();
+			String rolling = element.getAttribute("rolling");
+			if (rolling.length() > 0) {
+				((MappedFileAppender)appender).setDatePattern(getRollingPattern(rolling));
+			}
+		} else if (destType.equals("BINARY")) {
+			appender = new BinaryLogAppender();
+		} else if (destType.equals("FLIGHT_RECORDER")) {
+			appender = new FlightRecorderAppender();
+		} else if (destType.equals("ROLLING")) {
+			appender = new BackgroundRollingFileAppender();
+			String rolling = element.getAttribute("rolling");
+			if (rolling.length() > 0) {
+				((BackgroundRollingFileAppender)appender).setDatePattern(getRollingPattern(rolling));
+			}
+			((BackgroundRollingFileAppender)appender).setRollOnStart("true".equals(element.getAttribute("standalone")));
+		} else if (destType.equals("CONSOLE")) {
+			appender = new BatchedConsoleAppender();
 		} else if (destType.equals("SYSTEM_ERR")) {
-			appender = new ConsoleAppender();
-			((ConsoleAppender)appender).setTarget(ConsoleAppender.SYSTEM_ERR);
+			appender = new SystemStreamAppender();
+			((SystemStreamAppender)appender).setTarget(ConsoleAppender.SYSTEM_ERR);
 		} else {
-			appender = new ConsoleAppender();
-			((ConsoleAppender)appender).setTarget(ConsoleAppender.SYSTEM_OUT);
+			appender = new SystemStreamAppender();
+			((SystemStreamAppender)appender).setTarget(ConsoleAppender.SYSTEM_OUT);
 		}
 		appender.setName(destName);
 		PropertySetter propSetter = new PropertySetter(appender);
-		NodeList params = element.getChildNodes();
-		final int length = params.getLength();
+		final int length = element.getChildCount();
 		for (int loop = 0; loop < length; loop++) {
-			Node currentNode = (Node)params.item(loop);
-			if (currentNode.getNodeType() == Node.ELEMENT_NODE) {
-				Element currentElement = (Element) currentNode;
-				String tagName = currentElement.getTagName();
-				if(tagName.equals("parm")) {
-					setParameter(currentElement, propSetter);
-				} else if (tagName.equals("filter")) {
-					setDestFilter(appender, currentElement);
-				} else if (tagName.equals("layout")) {
-					setDestLayout(appender, currentElement);
+			ConfigElement currentElement = element.getChild(loop);
+			String tagName = currentElement.getTagName();
+			if(tagName.equals("parm")) {
+				setParameter(currentElement, propSetter);
+			} else if (tagName.equals("filter")) {
+				setDestFilter(appender, currentElement);
+			} else if (tagName.equals("layout")) {
+				setDestLayout(appender, currentElement);
+			} else if (tagName.equals("dest")) {
+				if (previous instanceof AppenderAttachable) {
+					this.replaced = ((AppenderAttachable)previous).getAppender(currentElement.getAttribute("name"));
 				}
+				setChildDestination(appender, currentElement);
+				this.replaced = null;
 			}
 		}
+		if (previous != null && appender instanceof ReplacingDestination) {
+			//the file may still be open by the replaced destination
+			((ReplacingDestination)appender).replaces(previous);
+		}
+		if (appender instanceof AsyncRingBufferAppender && !hasParameter(element, "LocationInfo")) {
+			//the caller is only known before the event is queued
+			AsyncRingBufferAppender async = (AsyncRingBufferAppender)appender;
+			async.setLocationInfo(usesLocation(async.getAllAppenders()));
+		}
     propSetter.activate();
-    setDestination(appender); 
+    return appender;
+	}
+	/** Same as {@link #createDestination(ConfigElement)} for a DOM element. */
+	protected Appender createDestination (Element element) {
+		return createDestination(ConfigElement.of(element));
+	}
+	/** Whether <code>element</code> has a <code>parm</code> child named <code>name</code>. */
+	protected static boolean hasParameter(ConfigElement element, String name) {
+		for (int loop = 0; loop < element.getChildCount(); loop++) {
+			ConfigElement child = element.getChild(loop);
+			if (child.getTagName().equals("parm") && name.equals(child.getAttribute("name"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/** Whether any of the appenders writes the location of the caller, through its layout or nested appenders. */
+	protected static boolean usesLocation(Enumeration appenders) {
+		while (appenders.hasMoreElements()) {
+			Appender appender = (Appender)appenders.nextElement();
+			Layout layout = appender.getLayout();
+			String pattern = null;
+			if (layout instanceof PatternLayout) {
+				pattern = ((PatternLayout)layout).getConversionPattern();
+			} else if (layout instanceof CompiledPatternLayout) {
+				pattern = ((CompiledPatternLayout)layout).getConversionPattern();
+			} else if (layout instanceof JsonLayout && ((JsonLayout)layout).getLocationInfo()) {
+				return true;
+			}
+			if (pattern != null && LOCATION_CONVERSION.matcher(pattern).find()) {
+				return true;
+			}
+			if (appender instanceof AsyncRingBufferAppender) {
+				if (((AsyncRingBufferAppender)appender).getLocationInfo()) {
+					return true;
+				}
+			} else if (appender instanceof AppenderAttachable && usesLocation(((AppenderAttachable)appender).getAllAppenders())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/** Attach the destination described by a nested <code>dest</code> element to <code>parent</code>. */
+	protected void setChildDestination (Appender parent, ConfigElement element) {
+		if (!(parent instanceof AppenderAttachable)) {
+			LogLog.warn("Destination [" + parent.getName() + "] does not accept nested destinations, ignoring [" + element.getAttribute("name") + "].");
+			return;
+		}
+		Appender child = createDestination(element);
+		if (child.getLayout() == null && child.requiresLayout())
+			child.setLayout(PATTERN_LAYOUT);
+		((AppenderAttachable)parent).addAppender(child);
+	}
+	/** Same as {@link #setChildDestination(Appender, ConfigElement)} for a DOM element. */
+	protected void setChildDestination (Appender parent, Element element) {
+		setChildDestination(parent, ConfigElement.of(element));
 	}
 	/** set logging level */
 	public void setLevel (int val) {
 		this.level = Level.toLevel(val);
 	}
-	protected void setLevel (Element element) {
+	protected void setLevel (ConfigElement element) {
 		this.level = Level.toLevel(element.getAttribute("value"), Level.OFF);
 	}
-	protected void setParameter(Element element, PropertySetter propSetter) {
+	/** Same as {@link #setLevel(ConfigElement)} for a DOM element. */
+	protected void setLevel (Element element) {
+		setLevel(ConfigElement.of(element));
+	}
+	protected void setParameter(ConfigElement element, PropertySetter propSetter) {
     String name = element.getAttribute("name");
     String value = element.getAttribute("value");
     propSetter.setProperty(name, value);
   }
+	/** Same as {@link #setParameter(ConfigElement, PropertySetter)} for a DOM element. */
+	protected void setParameter(Element element, PropertySetter propSetter) {
+		setParameter(ConfigElement.of(element), propSetter);
+	}
+	/** Set the <code>parm</code> children of <code>element</code>. */
+	protected void setParameters(ConfigElement element, PropertySetter propSetter) {
+		for (int loop = 0; loop < element.getChildCount(); loop++) {
+			ConfigElement child = element.getChild(loop);
+			if (child.getTagName().equals("parm")) {
+				setParameter(child, propSetter);
+			}
+		}
+	}
 
 
 public void setDestLayout(String name, String pattern) {
@@ -324,6 +689,22 @@ public void setDestLayout(String name, String pattern) {
 	}
 }
 
+/**
+ * Set the layout of a destination.
+ * @param name It is the name of the destination.
+ * @param type <code>PATTERN</code> for log4j's <code>PatternLayout</code> or <code>COMPILED</code> for 
+ * <code>CompiledPatternLayout</code>, which produces the same output and can encode events straight to bytes, 
+ * or <code>JSON</code> for <code>JsonLayout</code>, one line of JSON per event.
+ * @param pattern the conversion pattern. An empty <code>COMPILED</code> pattern uses the default pattern, it is ignored by <code>JSON</code>.
+ */
+public void setDestLayout(String name, String type, String pattern) {
+	
+	Appender appender = (Appender)this.appenders.get(name);
+	if (appender != null) {
+		setDestLayout(appender, type, pattern);		
+	}
+}
+
 protected void setDestLayout(Appender appender, String pattern) {
 	PatternLayout pl = new PatternLayout(pattern);
 
@@ -331,10 +712,30 @@ protected void setDestLayout(Appender appender, String pattern) {
 	
 }
 
-protected void setDestLayout(Appender appender, Element element) {
+protected void setDestLayout(Appender appender, String type, String pattern) {
+	if ("JSON".equals(type)) {
+		appender.setLayout(new JsonLayout());
+	} else if ("COMPILED".equals(type)) {
+		if (pattern == null || pattern.length() == 0) 
+			pattern = PATTERN_LAYOUT.getConversionPattern();
+		appender.setLayout(new CompiledPatternLayout(pattern));
+	} else {
+		setDestLayout(appender, pattern);
+	}
+}
+
+protected void setDestLayout(Appender appender, ConfigElement element) {
+	String type = element.getAttribute("type");
 	String pattern = element.getAttribute("pattern");
 	
-	setDestLayout(appender, pattern);	
+	setDestLayout(appender, type, pattern);	
+	if (appender.getLayout() instanceof JsonLayout) {
+		((JsonLayout)appender.getLayout()).setLocationInfo("true".equals(element.getAttribute("locationInfo")));
+	}
+}
+/** Same as {@link #setDestLayout(Appender, ConfigElement)} for a DOM element. */
+protected void setDestLayout(Appender appender, Element element) {
+	setDestLayout(appender, ConfigElement.of(element));
 }
 
 
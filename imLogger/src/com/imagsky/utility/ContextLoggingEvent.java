@@ -0,0 +1,97 @@
+package com.imagsky.utility;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.MDC;
+import org.apache.log4j.ContextualEvent;
+import org.apache.log4j.Priority;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+   <p>Logging event created by {@link Logger}, which holds the {@link LogContext} of the calling
+   thread. The context is immutable, so it is kept by reference and stays valid when the event
+   is written by another thread.
+
+   <p>The entries of log4j's <code>MDC</code> which the context does not hold are copied when
+   the event is created and follow the context fields, so a layout writing the context also
+   writes the values set with <code>MDC.put</code>. Nothing is copied while the MDC is empty.
+ */
+final class ContextLoggingEvent extends LoggingEvent implements ContextualEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String[] NONE = new String[0];
+
+	private final LogContext context;
+	/** The MDC entries which are not in the context. */
+	private final String[] mdcKeys;
+	private final String[] mdcValues;
+
+	ContextLoggingEvent(String fqnOfCategoryClass, Category logger, Priority level, Object message, Throwable throwable) {
+		super(fqnOfCategoryClass, logger, level, message, throwable);
+		this.context = LogContext.current();
+		Hashtable mdc = MDC.getContext();
+		if (mdc == null || mdc.isEmpty()) {
+			mdcKeys = NONE;
+			mdcValues = NONE;
+			return;
+		}
+		String[] keys = new String[mdc.size()];
+		String[] values = new String[keys.length];
+		int n = 0;
+		for (Iterator i = mdc.entrySet().iterator(); i.hasNext() && n < keys.length;) {
+			Map.Entry e = (Map.Entry) i.next();
+			String key = String.valueOf(e.getKey());
+			if (e.getValue() != null && context.get(key) == null) {
+				keys[n] = key;
+				values[n] = String.valueOf(e.getValue());
+				n++;
+			}
+		}
+		if (n < keys.length) {
+			String[] k = new String[n];
+			String[] v = new String[n];
+			System.arraycopy(keys, 0, k, 0, n);
+			System.arraycopy(values, 0, v, 0, n);
+			keys = k;
+			values = v;
+		}
+		mdcKeys = keys;
+		mdcValues = values;
+	}
+
+	LogContext getContext() {
+		return context;
+	}
+
+	/** The value of <code>key</code> in the context, or else in log4j's <code>MDC</code> when the event was created. */
+	public Object getMDC(String key) {
+		String value = context.get(key);
+		if (value != null) {
+			return value;
+		}
+		for (int i = 0; i < mdcKeys.length; i++) {
+			if (mdcKeys[i].equals(key)) {
+				return mdcValues[i];
+			}
+		}
+		return null;
+	}
+
+	public int getContextSize() {
+		return context.size() + mdcKeys.length;
+	}
+
+	public String getContextKey(int index) {
+		int size = context.size();
+		return index < size ? context.getKey(index) : mdcKeys[index - size];
+	}
+
+	public String getContextValue(int index) {
+		int size = context.size();
+		return index < size ? context.getValue(index) : mdcValues[index - size];
+	}
+}
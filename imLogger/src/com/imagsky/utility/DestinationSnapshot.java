@@ -0,0 +1,78 @@
+package com.imagsky.utility;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.log4j.Appender;
+
+/**
+   <p>The destinations of a logger as {@link Logger} and {@link TivoliLog} call them. A
+   configuration builds a new snapshot and retires the one it replaces, a snapshot is
+   never changed, see {@link Configurator#destinations(String)}.
+
+   <p>The threads writing to a snapshot are counted between {@link #enter()} and {@link #exit()}
+   in striped counters, a thread always uses the same stripe. A thread which enters a retired
+   snapshot leaves it at once and takes the current one. Once a retired snapshot, and the
+   snapshots it replaced, are drained nobody writes to their destinations any more, so the
+   destinations removed by the configuration can be closed without losing an event, see
+   {@link ConfigurationWatcher#retire(Appender[], DestinationSnapshot)}.
+*/
+final class DestinationSnapshot {
+
+	private static final int STRIPES = 16;
+	/** Ints between two stripes, so the stripes do not share a cache line. */
+	private static final int PADDING = 16;
+
+	final Appender[] appenders;
+
+	private final AtomicIntegerArray writers = new AtomicIntegerArray(STRIPES * PADDING);
+	private volatile boolean retired;
+	/** The snapshot this one replaced, until it is drained. */
+	private volatile DestinationSnapshot previous;
+
+	DestinationSnapshot(Appender[] appenders, DestinationSnapshot previous) {
+		this.appenders = appenders;
+		this.previous = previous;
+	}
+
+	private static int stripe() {
+		return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+	}
+
+	/** Count the calling thread as a writer, <code>false</code> if the snapshot is retired and must not be written. */
+	boolean enter() {
+		int stripe = stripe();
+		writers.incrementAndGet(stripe);
+		if (retired) {
+			writers.decrementAndGet(stripe);
+			return false;
+		}
+		return true;
+	}
+
+	/** The calling thread has written the event, after a successful {@link #enter()}. */
+	void exit() {
+		writers.decrementAndGet(stripe());
+	}
+
+	/** No thread enters the snapshot any more, it has been replaced. */
+	void retire() {
+		retired = true;
+	}
+
+	/** Whether nobody writes to this retired snapshot or to the snapshots it replaced. */
+	boolean isDrained() {
+		for (int i = 0; i < STRIPES; i++) {
+			if (writers.get(i * PADDING) != 0) {
+				return false;
+			}
+		}
+		DestinationSnapshot p = previous;
+		if (p != null) {
+			if (!p.isDrained()) {
+				return false;
+			}
+			previous = null;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,270 @@
+package com.imagsky.utility;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+   <p><code>LogContext</code> is the diagnostic context of the current thread, e.g. the request id,
+   the tenant and the user, written by the layouts with <code>%X{key}</code>.
+
+   <p>A context is immutable: {@link #with(String, String)} returns a new context and the thread
+   holds a reference to the current one, so a logging event captures the context by reference
+   instead of copying a map, and nothing is synchronized. Values set through log4j's <code>MDC</code>
+   are still written when the context has no value for the key.
+
+   <p>The context is changed for a block of code with a {@link Scope}:
+   <pre>
+   try (LogContext.Scope scope = LogContext.put("requestId", id)) {
+       ...
+   }
+   </pre>
+   The context is not inherited by the threads the current thread starts, a pool thread would
+   otherwise keep the context of whichever request created it. Tasks run by another thread, a
+   thread pool or virtual threads through an <code>ExecutorService</code>, get the context of the
+   submitting thread when they are wrapped with {@link #wrap(Runnable)}, {@link #wrap(Callable)}
+   or {@link #wrap(ExecutorService)}.
+ */
+public final class LogContext implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final LogContext EMPTY = new LogContext(new String[0], new String[0]);
+
+	private static final ThreadLocal CURRENT = new ThreadLocal() {
+		protected Object initialValue() {
+			return EMPTY;
+		}
+	};
+
+	/** Restores the previous context of the thread when closed. */
+	public static final class Scope implements AutoCloseable {
+		private final LogContext previous;
+		private boolean closed = false;
+
+		Scope(LogContext previous) {
+			this.previous = previous;
+		}
+
+		public void close() {
+			if (!closed) {
+				closed = true;
+				CURRENT.set(previous);
+			}
+		}
+	}
+
+	private final String[] keys;
+	private final String[] values;
+
+	private LogContext(String[] keys, String[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/** The context of the current thread. */
+	public static LogContext current() {
+		return (LogContext) CURRENT.get();
+	}
+
+	/** The context captured by <code>event</code>, {@link #EMPTY} for an event not created by {@link Logger}. */
+	public static LogContext of(LoggingEvent event) {
+		return event instanceof ContextLoggingEvent ? ((ContextLoggingEvent) event).getContext() : EMPTY;
+	}
+
+	/** Set <code>key</code> in the context of the current thread until the scope is closed. */
+	public static Scope put(String key, String value) {
+		return current().with(key, value).open();
+	}
+
+	/** Make this context the context of the current thread until the scope is closed. */
+	public Scope open() {
+		Scope scope = new Scope(current());
+		CURRENT.set(this);
+		return scope;
+	}
+
+	/** A context with the values of this one and <code>key</code> set to <code>value</code>, or removed if <code>value</code> is <code>null</code>. */
+	public LogContext with(String key, String value) {
+		int i = indexOf(key);
+		if (value == null) {
+			if (i < 0) {
+				return this;
+			}
+			String[] k = new String[keys.length - 1];
+			String[] v = new String[keys.length - 1];
+			System.arraycopy(keys, 0, k, 0, i);
+			System.arraycopy(values, 0, v, 0, i);
+			System.arraycopy(keys, i + 1, k, i, k.length - i);
+			System.arraycopy(values, i + 1, v, i, v.length - i);
+			return new LogContext(k, v);
+		}
+		if (i >= 0) {
+			if (value.equals(values[i])) {
+				return this;
+			}
+			String[] v = values.clone();
+			v[i] = value;
+			return new LogContext(keys, v);
+		}
+		String[] k = new String[keys.length + 1];
+		String[] v = new String[keys.length + 1];
+		System.arraycopy(keys, 0, k, 0, keys.length);
+		System.arraycopy(values, 0, v, 0, keys.length);
+		k[keys.length] = key;
+		v[keys.length] = value;
+		return new LogContext(k, v);
+	}
+
+	/** The value of <code>key</code>, <code>null</code> if it is not set. */
+	public String get(String key) {
+		int i = indexOf(key);
+		return i < 0 ? null : values[i];
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	/** The key at <code>index</code>, the keys are in the order they were first set. */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	public String getValue(int index) {
+		return values[index];
+	}
+
+	private int indexOf(String key) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String toString() {
+		StringBuffer sb = new StringBuffer("{");
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(keys[i]).append('=').append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	/** <code>task</code> running with the context of the current thread. */
+	public static Runnable wrap(final Runnable task) {
+		final LogContext context = current();
+		return new Runnable() {
+			public void run() {
+				Scope scope = context.open();
+				try {
+					task.run();
+				} finally {
+					scope.close();
+				}
+			}
+		};
+	}
+
+	/** <code>task</code> running with the context of the current thread. */
+	public static Callable wrap(final Callable task) {
+		final LogContext context = current();
+		return new Callable() {
+			public Object call() throws Exception {
+				Scope scope = context.open();
+				try {
+					return task.call();
+				} finally {
+					scope.close();
+				}
+			}
+		};
+	}
+
+	/** An executor running each task with the context of the thread which submitted it. */
+	public static Executor wrap(final Executor executor) {
+		return new Executor() {
+			public void execute(Runnable command) {
+				executor.execute(wrap(command));
+			}
+		};
+	}
+
+	/**
+	 * An executor service running each task with the context of the thread which submitted it,
+	 * e.g. for <code>Executors.newVirtualThreadPerTaskExecutor()</code>.
+	 */
+	public static ExecutorService wrap(ExecutorService executor) {
+		return new ContextExecutorService(executor);
+	}
+
+	private static final class ContextExecutorService implements ExecutorService {
+		private final ExecutorService executor;
+
+		ContextExecutorService(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		private static Collection wrapAll(Collection tasks) {
+			List wrapped = new ArrayList(tasks.size());
+			for (Object task : tasks) {
+				wrapped.add(wrap((Callable) task));
+			}
+			return wrapped;
+		}
+
+		public void execute(Runnable command) {
+			executor.execute(wrap(command));
+		}
+		public Future submit(Runnable task) {
+			return executor.submit(wrap(task));
+		}
+		public Future submit(Runnable task, Object result) {
+			return executor.submit(wrap(task), result);
+		}
+		public Future submit(Callable task) {
+			return executor.submit(wrap(task));
+		}
+		public List invokeAll(Collection tasks) throws InterruptedException {
+			return executor.invokeAll(wrapAll(tasks));
+		}
+		public List invokeAll(Collection tasks, long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.invokeAll(wrapAll(tasks), timeout, unit);
+		}
+		public Object invokeAny(Collection tasks) throws InterruptedException, ExecutionException {
+			return executor.invokeAny(wrapAll(tasks));
+		}
+		public Object invokeAny(Collection tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return executor.invokeAny(wrapAll(tasks), timeout, unit);
+		}
+		public void shutdown() {
+			executor.shutdown();
+		}
+		public List shutdownNow() {
+			return executor.shutdownNow();
+		}
+		public boolean isShutdown() {
+			return executor.isShutdown();
+		}
+		public boolean isTerminated() {
+			return executor.isTerminated();
+		}
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,468 @@
+package com.imagsky.utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.BackgroundRollingFileAppender;
+import org.apache.log4j.Level;
+
+/**
+   <p><code>LogSearch</code> finds the events of a time range in a log file and its backups,
+   e.g. <code>app.log</code>, <code>app.log.2002-02-07.backup</code> and
+   <code>app.log.2002-02-06.backup.gz</code>, without reading the files from the start.
+
+   <p>The files are searched from the oldest to the newest. The sidecar index written by the
+   file destinations, see {@link BackgroundRollingFileAppender}, tells which files cover the range
+   and where the range starts and ends in a file, a file without index is read from the start.
+   The lines are streamed, a compressed backup is decompressed as it is read.
+
+   <p>The events are filtered by time, level and logger when they are written by the default
+   pattern layout, which starts with <code>%d %-5p</code>, or by the <code>JSON</code> layout. Only the
+   JSON layout writes the logger, on the other lines the logger name is looked up in the text. The
+   lines which do not start an event, e.g. stack traces, go with the event before them. With other
+   layouts the time range is as precise as the index.
+   <pre>
+   java com.imagsky.utility.LogSearch [-from &lt;time&gt;] [-to &lt;time&gt;] [-level &lt;level&gt;] [-logger &lt;name&gt;] [-encoding &lt;charset&gt;] &lt;file&gt;
+   </pre>
+   The times are local and given as <code>yyyy-MM-dd HH:mm:ss,SSS</code>, <code>yyyy-MM-dd HH:mm:ss</code>,
+   <code>yyyy-MM-dd HH:mm</code> or <code>yyyy-MM-dd</code>. The files are read in the <b>Encoding</b> of the
+   destination, by default the platform charset like the destination; the <code>JSON</code> layout writes
+   UTF-8 whatever the encoding. The charset must encode the line feed as one byte, as ASCII does.
+ */
+public final class LogSearch {
+
+	private static final String FQCN = LogSearch.class.getName();
+	private static final String BACKUP_SUFFIX = ".backup";
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String JSON_START = "{\"timestamp\":\"";
+	private static final String[] TIME_FORMATS = {"yyyy-MM-dd HH:mm:ss,SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+
+	private final File file;
+	private long from = Long.MIN_VALUE;
+	private long to = Long.MAX_VALUE;
+	private Level level;
+	private String logger;
+	private Charset charset = Charset.defaultCharset();
+
+	private final SimpleDateFormat patternTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final SimpleDateFormat jsonTime = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+	private SimpleDateFormat lastFormat;
+	private String lastSecond;
+	private long lastSecondTime;
+
+	//the event of the last line which started one
+	private long eventTime;
+	private String eventLevel;
+	private String eventLogger;
+
+	public LogSearch(String fileName) {
+		this.file = new File(fileName).getAbsoluteFile();
+		this.jsonTime.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/** Only the events at or after <code>from</code>, in milliseconds since the epoch. */
+	public void setFrom(long from) {
+		this.from = from;
+	}
+	/** Only the events at or before <code>to</code>, in milliseconds since the epoch. */
+	public void setTo(long to) {
+		this.to = to;
+	}
+	/** Only the events at <code>level</code> or above. */
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+	/** Only the events of <code>logger</code> or its descendants. */
+	public void setLogger(String logger) {
+		this.logger = logger;
+	}
+	/** The charset the files were written in, the platform charset by default. */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/** The file and its backups, from the oldest to the newest. */
+	public File[] getFiles() {
+		final String prefix = file.getName() + ".";
+		File[] backups = file.getParentFile().listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				String n = f.getName();
+				return f.isFile() && n.startsWith(prefix)
+						&& (n.endsWith(BACKUP_SUFFIX) || n.endsWith(BACKUP_SUFFIX + GZIP_SUFFIX));
+			}
+		});
+		if (backups == null) {
+			backups = new File[0];
+		}
+		Arrays.sort(backups, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				File f1 = (File) o1;
+				File f2 = (File) o2;
+				long t1 = f1.lastModified();
+				long t2 = f2.lastModified();
+				if (t1 != t2) {
+					return t1 < t2 ? -1 : 1;
+				}
+				//same second, a longer name has the higher index
+				int l1 = f1.getName().length();
+				int l2 = f2.getName().length();
+				return l1 != l2 ? l1 - l2 : f1.getName().compareTo(f2.getName());
+			}
+		});
+		ArrayList files = new ArrayList(Arrays.asList(backups));
+		if (file.isFile()) {
+			files.add(file);
+		}
+		return (File[]) files.toArray(new File[files.size()]);
+	}
+
+	/** Write the lines of the matching events to <code>out</code>, the number of events is returned. */
+	public long search(Writer out) throws IOException {
+		long found = 0;
+		File[] files = getFiles();
+		for (int i = 0; i < files.length; i++) {
+			found += search(files[i], out);
+		}
+		out.flush();
+		return found;
+	}
+
+	private long search(File f, Writer out) throws IOException {
+		//a file last written before the range, allowing for the precision of the file time
+		if (f.lastModified() + 1000 < from) {
+			return 0;
+		}
+		long start = 0;
+		long end = Long.MAX_VALUE;
+		long[][] index = readIndex(f);
+		if (index != null) {
+			long[] times = index[0];
+			long[] offsets = index[1];
+			if (times.length > 0 && times[0] > to) {
+				return 0;
+			}
+			//the events are written nearly in time order, one more entry on both sides allows for the others
+			int first = 0;
+			while (first < times.length && times[first] < from) {
+				first++;
+			}
+			start = first >= 2 ? offsets[first - 2] : 0;
+			int last = 0;
+			while (last < times.length && times[last] <= to) {
+				last++;
+			}
+			end = last + 1 < times.length ? offsets[last + 1] : Long.MAX_VALUE;
+		}
+		InputStream in = open(f, start);
+		long found = 0;
+		try {
+			LineReader reader = new LineReader(in, start, charset);
+			boolean matching = level == null && logger == null;
+			String line;
+			while (reader.offset() < end && (line = reader.readLine()) != null) {
+				if (parse(line)) {
+					matching = matches(line);
+					if (matching) {
+						found++;
+					}
+				}
+				if (matching) {
+					out.write(line);
+					out.write('\n');
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return found;
+	}
+
+	/** The stream of the uncompressed data of <code>f</code> from <code>offset</code>. */
+	private static InputStream open(File f, long offset) throws IOException {
+		FileInputStream fin = new FileInputStream(f);
+		if (!f.getName().endsWith(GZIP_SUFFIX)) {
+			fin.getChannel().position(offset);
+			return fin;
+		}
+		InputStream in = new GZIPInputStream(fin, 64 * 1024);
+		long skipped = 0;
+		while (skipped < offset) {
+			long n = in.skip(offset - skipped);
+			if (n <= 0) {
+				break;
+			}
+			skipped += n;
+		}
+		return in;
+	}
+
+	/** The times and offsets of the index of <code>f</code>, <code>null</code> if it has none. */
+	static long[][] readIndex(File f) throws IOException {
+		String name = f.getPath();
+		if (name.endsWith(GZIP_SUFFIX)) {
+			name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+		}
+		File indexFile = new File(name + BackgroundRollingFileAppender.INDEX_SUFFIX);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		long[] times = new long[64];
+		long[] offsets = new long[64];
+		int count = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int space = line.indexOf(' ');
+				if (space < 0) {
+					//an entry cut short by a crash
+					continue;
+				}
+				if (count == times.length) {
+					times = Arrays.copyOf(times, count * 2);
+					offsets = Arrays.copyOf(offsets, count * 2);
+				}
+				try {
+					times[count] = Long.parseLong(line.substring(0, space));
+					offsets[count] = Long.parseLong(line.substring(space + 1));
+					count++;
+				} catch (NumberFormatException e) {
+					//ignore the entry
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return new long[][] {Arrays.copyOf(times, count), Arrays.copyOf(offsets, count)};
+	}
+
+	/** Take the time, level and logger of a line which starts an event, <code>false</code> for the other lines. */
+	private boolean parse(String line) {
+		if (line.startsWith(JSON_START) && line.length() > JSON_START.length() + 24
+				&& isDate(line, JSON_START.length(), 'T', '.')) {
+			int t = JSON_START.length();
+			eventTime = seconds(line.substring(t, t + 19), jsonTime) + Integer.parseInt(line.substring(t + 20, t + 23));
+			eventLevel = jsonField(line, "\"level\":\"");
+			eventLogger = jsonField(line, "\"logger\":\"");
+			return true;
+		}
+		if (line.length() >= 23 && isDate(line, 0, ' ', ',')) {
+			eventTime = seconds(line.substring(0, 19), patternTime) + Integer.parseInt(line.substring(20, 23));
+			int s = 23;
+			while (s < line.length() && line.charAt(s) == ' ') {
+				s++;
+			}
+			int e = s;
+			while (e < line.length() && line.charAt(e) != ' ') {
+				e++;
+			}
+			eventLevel = line.substring(s, e);
+			eventLogger = null;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean matches(String line) {
+		if (eventTime < from || eventTime > to) {
+			return false;
+		}
+		if (level != null) {
+			Level l = Level.toLevel(eventLevel, null);
+			if (l == null || !l.isGreaterOrEqual(level)) {
+				return false;
+			}
+		}
+		if (logger != null) {
+			if (eventLogger != null) {
+				return eventLogger.equals(logger) || eventLogger.startsWith(logger + ".");
+			}
+			return line.indexOf(logger) >= 0;
+		}
+		return true;
+	}
+
+	/** Whether <code>yyyy-MM-dd?HH:mm:ss?SSS</code> starts at <code>offset</code>. */
+	private static boolean isDate(String s, int offset, char dateTime, char millis) {
+		String shape = "dddd-dd-dd?dd:dd:dd?ddd";
+		for (int i = 0; i < shape.length(); i++) {
+			char c = s.charAt(offset + i);
+			char expected = shape.charAt(i);
+			if (expected == 'd') {
+				if (c < '0' || c > '9') {
+					return false;
+				}
+			} else if (expected == '?') {
+				if (c != (i == 10 ? dateTime : millis)) {
+					return false;
+				}
+			} else if (c != expected) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** The time of a second, the last one is kept as the lines of a second follow each other. */
+	private long seconds(String text, SimpleDateFormat format) {
+		if (format != lastFormat || !text.equals(lastSecond)) {
+			try {
+				lastSecondTime = format.parse(text).getTime();
+			} catch (ParseException e) {
+				lastSecondTime = 0;
+			}
+			lastFormat = format;
+			lastSecond = text;
+		}
+		return lastSecondTime;
+	}
+
+	private static String jsonField(String line, String key) {
+		int s = line.indexOf(key);
+		if (s < 0) {
+			return null;
+		}
+		s += key.length();
+		int e = line.indexOf('"', s);
+		return e < 0 ? null : line.substring(s, e);
+	}
+
+	/** Parse a time in one of the formats of the command line. */
+	static long parseTime(String text) throws ParseException {
+		for (int i = 0; i < TIME_FORMATS.length; i++) {
+			if (text.length() == TIME_FORMATS[i].length()) {
+				SimpleDateFormat format = new SimpleDateFormat(TIME_FORMATS[i]);
+				format.setLenient(false);
+				return format.parse(text).getTime();
+			}
+		}
+		throw new ParseException("Unknown time format [" + text + "].", 0);
+	}
+
+	/** Reads the lines of a stream and counts their bytes, without line separator. */
+	private static final class LineReader {
+		private final InputStream in;
+		private final Charset charset;
+		private final byte[] buffer = new byte[64 * 1024];
+		private byte[] line = new byte[256];
+		private int position;
+		private int limit;
+		private long offset;
+
+		LineReader(InputStream in, long offset, Charset charset) {
+			this.in = in;
+			this.offset = offset;
+			this.charset = charset;
+		}
+
+		/** The offset of the next line. */
+		long offset() {
+			return offset;
+		}
+
+		String readLine() throws IOException {
+			int length = 0;
+			while (true) {
+				if (position == limit) {
+					limit = in.read(buffer, 0, buffer.length);
+					position = 0;
+					if (limit <= 0) {
+						limit = 0;
+						return length > 0 ? decode(length) : null;
+					}
+				}
+				byte b = buffer[position++];
+				offset++;
+				if (b == '\n') {
+					return decode(length);
+				}
+				if (length == line.length) {
+					line = Arrays.copyOf(line, length * 2);
+				}
+				line[length++] = b;
+			}
+		}
+
+		private String decode(int length) {
+			if (length > 0 && line[length - 1] == '\r') {
+				length--;
+			}
+			return new String(line, 0, length, charset);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		LogSearch search = null;
+		try {
+			int i = 0;
+			String from = null, to = null, level = null, logger = null, encoding = null;
+			for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+				if ("-from".equals(args[i])) {
+					from = args[i + 1];
+				} else if ("-to".equals(args[i])) {
+					to = args[i + 1];
+				} else if ("-level".equals(args[i])) {
+					level = args[i + 1];
+				} else if ("-logger".equals(args[i])) {
+					logger = args[i + 1];
+				} else if ("-encoding".equals(args[i])) {
+					encoding = args[i + 1];
+				} else {
+					break;
+				}
+			}
+			if (i == args.length - 1) {
+				search = new LogSearch(args[i]);
+				if (from != null) {
+					search.setFrom(parseTime(from));
+				}
+				if (to != null) {
+					search.setTo(parseTime(to));
+				}
+				if (level != null) {
+					search.setLevel(Level.toLevel(level));
+				}
+				search.setLogger(logger);
+				if (encoding != null) {
+					search.setCharset(Charset.forName(encoding));
+				}
+			}
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			search = null;
+		} catch (IllegalCharsetNameException e) {
+			System.err.println("Unknown encoding [" + e.getCharsetName() + "].");
+			search = null;
+		} catch (UnsupportedCharsetException e) {
+			System.err.println("Unknown encoding [" + e.getCharsetName() + "].");
+			search = null;
+		}
+		if (search == null) {
+			System.err.println("Usage: java " + FQCN + " [-from <time>] [-to <time>] [-level <level>] [-logger <name>] [-encoding <charset>] <file>");
+			System.exit(1);
+		}
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 64 * 1024);
+		search.search(out);
+	}
+}
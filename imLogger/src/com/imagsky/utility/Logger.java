@@ -1,7 +1,12 @@
 package com.imagsky.utility;
 
+import org.apache.log4j.Appender;
+import org.apache.log4j.FlightRecorderAppender;
 import org.apache.log4j.Level;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
    <p><code>Logger</code> is the core part of the component. 
@@ -20,9 +25,23 @@ import java.util.Date;
 
 public class Logger {
     private org.apache.log4j.Logger logger;
+    /** Cached effective level, so a disabled call costs one field read. */
+    private volatile int effectiveLevel;
+    /** Compiled logger level filters, <code>null</code> when there are none. */
+    private volatile PreFilter[] preFilters;
+    /** The destinations called directly, <code>null</code> to go through log4j, see {@link Configurator#destinations(String)}. */
+    private volatile DestinationSnapshot destinations;
+    private LoggerMetrics metrics;
     
     private static final String FQCN = (com.imagsky.utility.Logger.class).getName() + ".";
     
+    private static final ConcurrentHashMap<String, Logger> LOGGERS = new ConcurrentHashMap<String, Logger>();
+    private static final Function<String, Logger> NEW_LOGGER = new Function<String, Logger>() {
+        public Logger apply(String name) {
+            return new Logger(name);
+        }
+    };
+    
     /** The highest logging level, all logger printing methods are disabled.*/
     public static final int OFF = Level.OFF_INT;
     
@@ -58,11 +77,13 @@ public class Logger {
             	configurator.configure();
             	tmpLogger = org.apache.log4j.Logger.getLogger(name);
             } catch (java.io.IOException e) {
-            	e.printStackTrace();
+            	org.apache.log4j.helpers.LogLog.error("Cannot load the configuration of logger [" + name + "].", e);
             	throw new java.lang.NullPointerException("Cannot create logger, please check the configuration file!");
             }
         }
         this.logger = tmpLogger;
+        this.refreshEffectiveLevel();
+        this.registerMetrics();
     }
     
     private Logger(String name) {
@@ -74,20 +95,48 @@ public class Logger {
             	configurator.configure();
             	tmpLogger = org.apache.log4j.Logger.getLogger(name);
             } catch (java.io.IOException e) {
-            	e.printStackTrace();
+            	org.apache.log4j.helpers.LogLog.error("Cannot load the configuration of logger [" + name + "].", e);
             	throw new java.lang.NullPointerException("Cannot create logger, please check the configuration file!");
             }
         }
         this.logger = tmpLogger;
+        this.refreshEffectiveLevel();
+        this.registerMetrics();
     }
-    /** Initiate and retrieve logger instance */
+    /** 
+    Initiate and retrieve logger instance.
+    
+    <p>Logger instances are kept in a concurrent registry, a repeated lookup is a single hash read. 
+    The configuration file of a logger is loaded exactly once, even when many threads ask for 
+    the same new logger at the same time. */
 		public static Logger getLogger(String name) {
-			Logger tmpLogger = new Logger(name);
+			Logger tmpLogger = LOGGERS.get(name);
+			if (tmpLogger == null) {
+				tmpLogger = LOGGERS.computeIfAbsent(name, NEW_LOGGER);
+			}
 			return tmpLogger;
     }
+    /** 
+    Set <code>key</code> in the {@link LogContext} of the current thread until the returned scope is closed. 
+    The value is written by the layouts with <code>%X{key}</code>. */
+    public static LogContext.Scope putContext(String key, String value) {
+        return LogContext.put(key, value);
+    }
+    /** The {@link LogContext} of the current thread, which the events logged now capture. */
+    public static LogContext getContext() {
+        return LogContext.current();
+    }
+    /** 
+    Write the events kept by the <code>FLIGHT_RECORDER</code> destinations to their files, 
+    e.g. when the application detects a problem which is not logged as an error. */
+    public static void dumpFlightRecorders() {
+        FlightRecorderAppender.dumpAll();
+    }
     /** set logging level */
     public void setLevel(int i) {
         this.logger.setLevel(Level.toLevel(i));
+        //loggers without a level of their own may inherit this one
+        refreshEffectiveLevels();
     }
     /** Return the name of the logger */
     public String getName() {
@@ -118,14 +167,18 @@ public class Logger {
 	   @param obj the message object to log.
 	   @param throwable the exception to log, including its stack trace.  */  
     public void debug(Object obj, Throwable throwable) {
-        this.logger.log(FQCN, Level.DEBUG, obj, throwable);
+        if (this.accept(Level.DEBUG_INT, obj)) {
+            this.forcedLog(Level.DEBUG, obj, throwable);
+        }
     }
   	
     public void trace(Object obj) {
     	this.trace(obj, null);
     }
     public void trace(Object obj, Throwable th) {
-    	this.logger.log(FQCN, Level.TRACE, obj, th);
+    	if (this.accept(Level.TRACE_INT, obj)) {
+    		this.forcedLog(Level.TRACE, obj, th);
+    	}
     }
     
   	/** 
@@ -153,7 +206,9 @@ public class Logger {
    @param obj the message object to log.
    @param throwable the exception to log, including its stack trace.  */  
     public void error(Object obj, Throwable throwable) {
-        this.logger.log(FQCN, Level.ERROR, obj, throwable);
+        if (this.accept(Level.ERROR_INT, obj)) {
+            this.forcedLog(Level.ERROR, obj, throwable);
+        }
     }
   /** 
     Log a message object with the {@link #FATAL FATAL} Level.
@@ -181,7 +236,9 @@ public class Logger {
    @param obj the message object to log.
    @param throwable the exception to log, including its stack trace.  */
     public void fatal(Object obj, Throwable throwable) {
-        this.logger.log(FQCN, Level.FATAL, obj, throwable);
+        if (this.accept(Level.FATAL_INT, obj)) {
+            this.forcedLog(Level.FATAL, obj, throwable);
+        }
     }
   /** 
     Log a message object with the {@link Level#INFO INFO} Level.
@@ -209,7 +266,9 @@ public class Logger {
    @param obj the message object to log.
    @param throwable the exception to log, including its stack trace.  */
     public void info(Object obj, Throwable throwable) {
-        this.logger.log(FQCN, Level.INFO, obj, throwable);
+        if (this.accept(Level.INFO_INT, obj)) {
+            this.forcedLog(Level.INFO, obj, throwable);
+        }
     }
     /** 
     Log a message object with the {@link Level#WARN WARN} Level.
@@ -237,7 +296,392 @@ public class Logger {
    @param obj the message object to log.
    @param throwable the exception to log, including its stack trace.  */
     public void warn(Object obj, Throwable throwable) {
-        this.logger.log(FQCN, Level.WARN, obj, throwable);
+        if (this.accept(Level.WARN_INT, obj)) {
+            this.forcedLog(Level.WARN, obj, throwable);
+        }
+    }
+    /** 
+    Log a message with the {@link #TRACE TRACE} level, replacing the <code>{}</code> placeholder
+    of <code>pattern</code> with <code>arg</code>.
+
+    <p>The level is checked before anything is allocated and the message is only formatted
+    by {@link MessageFormatter} when a destination writes it. If the last argument is a
+    {@link Throwable} which has no placeholder, it is logged with its stack trace.
+    
+    @param pattern the message pattern.
+    @param arg the argument of the placeholder. */
+    public void trace(String pattern, Object arg) {
+        if (this.accept(Level.TRACE_INT, pattern)) {
+            this.log(Level.TRACE, pattern, new Object[] {arg});
+        }
+    }
+    /** Log a message with the <code>TRACE</code> level and two arguments. See {@link #trace(String, Object)}. */
+    public void trace(String pattern, Object arg1, Object arg2) {
+        if (this.accept(Level.TRACE_INT, pattern)) {
+            this.log(Level.TRACE, pattern, new Object[] {arg1, arg2});
+        }
+    }
+    /** Log a message with the <code>TRACE</code> level and three arguments. See {@link #trace(String, Object)}. */
+    public void trace(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (this.accept(Level.TRACE_INT, pattern)) {
+            this.log(Level.TRACE, pattern, new Object[] {arg1, arg2, arg3});
+        }
+    }
+    /** Log a message with the <code>TRACE</code> level and any number of arguments. See {@link #trace(String, Object)}. */
+    public void trace(String pattern, Object... args) {
+        if (this.accept(Level.TRACE_INT, pattern)) {
+            this.log(Level.TRACE, pattern, args);
+        }
+    }
+    /** Same as {@link #trace(Object, Throwable)}, a <code>String</code> message followed by a <code>Throwable</code> is not treated as a pattern. */
+    public void trace(String message, Throwable throwable) {
+        this.trace((Object) message, throwable);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>TRACE</code> level.
+    The supplier is only called when the logger is <code>TRACE</code> enabled. */
+    public void trace(Supplier<?> supplier) {
+        this.trace(supplier, null);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>TRACE</code> level including
+    the stack trace of <code>throwable</code>. The supplier is only called when the logger is <code>TRACE</code> enabled. */
+    public void trace(Supplier<?> supplier, Throwable throwable) {
+        if (this.accept(Level.TRACE_INT, null)) {
+            this.forcedLog(Level.TRACE, supplier == null ? null : supplier.get(), throwable);
+        }
+    }
+    /** 
+    Log a message with the {@link #DEBUG DEBUG} level, replacing the <code>{}</code> placeholder
+    of <code>pattern</code> with <code>arg</code>.
+
+    <p>The level is checked before anything is allocated and the message is only formatted
+    by {@link MessageFormatter} when a destination writes it. If the last argument is a
+    {@link Throwable} which has no placeholder, it is logged with its stack trace.
+    
+    @param pattern the message pattern.
+    @param arg the argument of the placeholder. */
+    public void debug(String pattern, Object arg) {
+        if (this.accept(Level.DEBUG_INT, pattern)) {
+            this.log(Level.DEBUG, pattern, new Object[] {arg});
+        }
+    }
+    /** Log a message with the <code>DEBUG</code> level and two arguments. See {@link #debug(String, Object)}. */
+    public void debug(String pattern, Object arg1, Object arg2) {
+        if (this.accept(Level.DEBUG_INT, pattern)) {
+            this.log(Level.DEBUG, pattern, new Object[] {arg1, arg2});
+        }
+    }
+    /** Log a message with the <code>DEBUG</code> level and three arguments. See {@link #debug(String, Object)}. */
+    public void debug(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (this.accept(Level.DEBUG_INT, pattern)) {
+            this.log(Level.DEBUG, pattern, new Object[] {arg1, arg2, arg3});
+        }
+    }
+    /** Log a message with the <code>DEBUG</code> level and any number of arguments. See {@link #debug(String, Object)}. */
+    public void debug(String pattern, Object... args) {
+        if (this.accept(Level.DEBUG_INT, pattern)) {
+            this.log(Level.DEBUG, pattern, args);
+        }
+    }
+    /** Same as {@link #debug(Object, Throwable)}, a <code>String</code> message followed by a <code>Throwable</code> is not treated as a pattern. */
+    public void debug(String message, Throwable throwable) {
+        this.debug((Object) message, throwable);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>DEBUG</code> level.
+    The supplier is only called when the logger is <code>DEBUG</code> enabled. */
+    public void debug(Supplier<?> supplier) {
+        this.debug(supplier, null);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>DEBUG</code> level including
+    the stack trace of <code>throwable</code>. The supplier is only called when the logger is <code>DEBUG</code> enabled. */
+    public void debug(Supplier<?> supplier, Throwable throwable) {
+        if (this.accept(Level.DEBUG_INT, null)) {
+            this.forcedLog(Level.DEBUG, supplier == null ? null : supplier.get(), throwable);
+        }
+    }
+    /** 
+    Log a message with the {@link #INFO INFO} level, replacing the <code>{}</code> placeholder
+    of <code>pattern</code> with <code>arg</code>.
+
+    <p>The level is checked before anything is allocated and the message is only formatted
+    by {@link MessageFormatter} when a destination writes it. If the last argument is a
+    {@link Throwable} which has no placeholder, it is logged with its stack trace.
+    
+    @param pattern the message pattern.
+    @param arg the argument of the placeholder. */
+    public void info(String pattern, Object arg) {
+        if (this.accept(Level.INFO_INT, pattern)) {
+            this.log(Level.INFO, pattern, new Object[] {arg});
+        }
+    }
+    /** Log a message with the <code>INFO</code> level and two arguments. See {@link #info(String, Object)}. */
+    public void info(String pattern, Object arg1, Object arg2) {
+        if (this.accept(Level.INFO_INT, pattern)) {
+            this.log(Level.INFO, pattern, new Object[] {arg1, arg2});
+        }
+    }
+    /** Log a message with the <code>INFO</code> level and three arguments. See {@link #info(String, Object)}. */
+    public void info(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (this.accept(Level.INFO_INT, pattern)) {
+            this.log(Level.INFO, pattern, new Object[] {arg1, arg2, arg3});
+        }
+    }
+    /** Log a message with the <code>INFO</code> level and any number of arguments. See {@link #info(String, Object)}. */
+    public void info(String pattern, Object... args) {
+        if (this.accept(Level.INFO_INT, pattern)) {
+            this.log(Level.INFO, pattern, args);
+        }
+    }
+    /** Same as {@link #info(Object, Throwable)}, a <code>String</code> message followed by a <code>Throwable</code> is not treated as a pattern. */
+    public void info(String message, Throwable throwable) {
+        this.info((Object) message, throwable);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>INFO</code> level.
+    The supplier is only called when the logger is <code>INFO</code> enabled. */
+    public void info(Supplier<?> supplier) {
+        this.info(supplier, null);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>INFO</code> level including
+    the stack trace of <code>throwable</code>. The supplier is only called when the logger is <code>INFO</code> enabled. */
+    public void info(Supplier<?> supplier, Throwable throwable) {
+        if (this.accept(Level.INFO_INT, null)) {
+            this.forcedLog(Level.INFO, supplier == null ? null : supplier.get(), throwable);
+        }
+    }
+    /** 
+    Log a message with the {@link #WARN WARN} level, replacing the <code>{}</code> placeholder
+    of <code>pattern</code> with <code>arg</code>.
+
+    <p>The level is checked before anything is allocated and the message is only formatted
+    by {@link MessageFormatter} when a destination writes it. If the last argument is a
+    {@link Throwable} which has no placeholder, it is logged with its stack trace.
+    
+    @param pattern the message pattern.
+    @param arg the argument of the placeholder. */
+    public void warn(String pattern, Object arg) {
+        if (this.accept(Level.WARN_INT, pattern)) {
+            this.log(Level.WARN, pattern, new Object[] {arg});
+        }
+    }
+    /** Log a message with the <code>WARN</code> level and two arguments. See {@link #warn(String, Object)}. */
+    public void warn(String pattern, Object arg1, Object arg2) {
+        if (this.accept(Level.WARN_INT, pattern)) {
+            this.log(Level.WARN, pattern, new Object[] {arg1, arg2});
+        }
+    }
+    /** Log a message with the <code>WARN</code> level and three arguments. See {@link #warn(String, Object)}. */
+    public void warn(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (this.accept(Level.WARN_INT, pattern)) {
+            this.log(Level.WARN, pattern, new Object[] {arg1, arg2, arg3});
+        }
+    }
+    /** Log a message with the <code>WARN</code> level and any number of arguments. See {@link #warn(String, Object)}. */
+    public void warn(String pattern, Object... args) {
+        if (this.accept(Level.WARN_INT, pattern)) {
+            this.log(Level.WARN, pattern, args);
+        }
+    }
+    /** Same as {@link #warn(Object, Throwable)}, a <code>String</code> message followed by a <code>Throwable</code> is not treated as a pattern. */
+    public void warn(String message, Throwable throwable) {
+        this.warn((Object) message, throwable);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>WARN</code> level.
+    The supplier is only called when the logger is <code>WARN</code> enabled. */
+    public void warn(Supplier<?> supplier) {
+        this.warn(supplier, null);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>WARN</code> level including
+    the stack trace of <code>throwable</code>. The supplier is only called when the logger is <code>WARN</code> enabled. */
+    public void warn(Supplier<?> supplier, Throwable throwable) {
+        if (this.accept(Level.WARN_INT, null)) {
+            this.forcedLog(Level.WARN, supplier == null ? null : supplier.get(), throwable);
+        }
+    }
+    /** 
+    Log a message with the {@link #ERROR ERROR} level, replacing the <code>{}</code> placeholder
+    of <code>pattern</code> with <code>arg</code>.
+
+    <p>The level is checked before anything is allocated and the message is only formatted
+    by {@link MessageFormatter} when a destination writes it. If the last argument is a
+    {@link Throwable} which has no placeholder, it is logged with its stack trace.
+    
+    @param pattern the message pattern.
+    @param arg the argument of the placeholder. */
+    public void error(String pattern, Object arg) {
+        if (this.accept(Level.ERROR_INT, pattern)) {
+            this.log(Level.ERROR, pattern, new Object[] {arg});
+        }
+    }
+    /** Log a message with the <code>ERROR</code> level and two arguments. See {@link #error(String, Object)}. */
+    public void error(String pattern, Object arg1, Object arg2) {
+        if (this.accept(Level.ERROR_INT, pattern)) {
+            this.log(Level.ERROR, pattern, new Object[] {arg1, arg2});
+        }
+    }
+    /** Log a message with the <code>ERROR</code> level and three arguments. See {@link #error(String, Object)}. */
+    public void error(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (this.accept(Level.ERROR_INT, pattern)) {
+            this.log(Level.ERROR, pattern, new Object[] {arg1, arg2, arg3});
+        }
+    }
+    /** Log a message with the <code>ERROR</code> level and any number of arguments. See {@link #error(String, Object)}. */
+    public void error(String pattern, Object... args) {
+        if (this.accept(Level.ERROR_INT, pattern)) {
+            this.log(Level.ERROR, pattern, args);
+        }
+    }
+    /** Same as {@link #error(Object, Throwable)}, a <code>String</code> message followed by a <code>Throwable</code> is not treated as a pattern. */
+    public void error(String message, Throwable throwable) {
+        this.error((Object) message, throwable);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>ERROR</code> level.
+    The supplier is only called when the logger is <code>ERROR</code> enabled. */
+    public void error(Supplier<?> supplier) {
+        this.error(supplier, null);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>ERROR</code> level including
+    the stack trace of <code>throwable</code>. The supplier is only called when the logger is <code>ERROR</code> enabled. */
+    public void error(Supplier<?> supplier, Throwable throwable) {
+        if (this.accept(Level.ERROR_INT, null)) {
+            this.forcedLog(Level.ERROR, supplier == null ? null : supplier.get(), throwable);
+        }
+    }
+    /** 
+    Log a message with the {@link #FATAL FATAL} level, replacing the <code>{}</code> placeholder
+    of <code>pattern</code> with <code>arg</code>.
+
+    <p>The level is checked before anything is allocated and the message is only formatted
+    by {@link MessageFormatter} when a destination writes it. If the last argument is a
+    {@link Throwable} which has no placeholder, it is logged with its stack trace.
+    
+    @param pattern the message pattern.
+    @param arg the argument of the placeholder. */
+    public void fatal(String pattern, Object arg) {
+        if (this.accept(Level.FATAL_INT, pattern)) {
+            this.log(Level.FATAL, pattern, new Object[] {arg});
+        }
+    }
+    /** Log a message with the <code>FATAL</code> level and two arguments. See {@link #fatal(String, Object)}. */
+    public void fatal(String pattern, Object arg1, Object arg2) {
+        if (this.accept(Level.FATAL_INT, pattern)) {
+            this.log(Level.FATAL, pattern, new Object[] {arg1, arg2});
+        }
+    }
+    /** Log a message with the <code>FATAL</code> level and three arguments. See {@link #fatal(String, Object)}. */
+    public void fatal(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (this.accept(Level.FATAL_INT, pattern)) {
+            this.log(Level.FATAL, pattern, new Object[] {arg1, arg2, arg3});
+        }
+    }
+    /** Log a message with the <code>FATAL</code> level and any number of arguments. See {@link #fatal(String, Object)}. */
+    public void fatal(String pattern, Object... args) {
+        if (this.accept(Level.FATAL_INT, pattern)) {
+            this.log(Level.FATAL, pattern, args);
+        }
+    }
+    /** Same as {@link #fatal(Object, Throwable)}, a <code>String</code> message followed by a <code>Throwable</code> is not treated as a pattern. */
+    public void fatal(String message, Throwable throwable) {
+        this.fatal((Object) message, throwable);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>FATAL</code> level.
+    The supplier is only called when the logger is <code>FATAL</code> enabled. */
+    public void fatal(Supplier<?> supplier) {
+        this.fatal(supplier, null);
+    }
+    /** 
+    Log the message object returned by <code>supplier</code> with the <code>FATAL</code> level including
+    the stack trace of <code>throwable</code>. The supplier is only called when the logger is <code>FATAL</code> enabled. */
+    public void fatal(Supplier<?> supplier, Throwable throwable) {
+        if (this.accept(Level.FATAL_INT, null)) {
+            this.forcedLog(Level.FATAL, supplier == null ? null : supplier.get(), throwable);
+        }
+    }
+    /** Log a parameterized message, a trailing <code>Throwable</code> without placeholder is logged as the exception. */
+    private void log(Level level, String pattern, Object[] args) {
+        int argCount = args == null ? 0 : args.length;
+        Throwable throwable = null;
+        if (argCount > 0 && args[argCount - 1] instanceof Throwable
+                && MessageFormatter.countPlaceholders(pattern) < argCount) {
+            throwable = (Throwable) args[argCount - 1];
+            argCount--;
+        }
+        this.forcedLog(level, new ParameterizedMessage(pattern, args, argCount), throwable);
+    }
+    private void registerMetrics() {
+        if (LoggerMetrics.ENABLED) {
+            this.metrics = new LoggerMetrics(this.logger.getName());
+            Metrics.registerLogger(this.metrics);
+        }
+    }
+    /** 
+    Write the event to the destinations, the level must have been checked. The destinations are called 
+    without a lock, each one serializes its own writing. The thread is counted as a writer of the 
+    snapshot meanwhile, so a reload closes a removed destination only after the event is written. */
+    private void forcedLog(Level level, Object message, Throwable throwable) {
+        ContextLoggingEvent event = new ContextLoggingEvent(FQCN, this.logger, level, message, throwable);
+        DestinationSnapshot destinations = this.destinations;
+        while (destinations != null && !destinations.enter()) {
+            //replaced by a reload meanwhile
+            destinations = Configurator.destinations(this.logger.getName());
+        }
+        if (destinations == null) {
+            this.logger.callAppenders(event);
+            return;
+        }
+        try {
+            Appender[] appenders = destinations.appenders;
+            for (int i = 0; i < appenders.length; i++) {
+                appenders[i].doAppend(event);
+            }
+        } finally {
+            destinations.exit();
+        }
+    }
+    /** A single read of the cached level, see {@link #refreshEffectiveLevels()}. */
+    private boolean isEnabled(int level) {
+        return level >= this.effectiveLevel;
+    }
+    /** 
+    Same as {@link #isEnabled(int)} for an event, which must also pass the {@link PreFilter} stage. 
+    The event is counted when the metrics are enabled. */
+    private boolean accept(int level, Object message) {
+        boolean enabled = level >= this.effectiveLevel;
+        if (enabled) {
+            PreFilter[] filters = this.preFilters;
+            enabled = filters == null || PreFilter.accept(filters, level, message);
+        }
+        if (LoggerMetrics.ENABLED) {
+            this.metrics.record(level, enabled);
+        }
+        return enabled;
+    }
+    /** 
+    The lowest enabled level, i.e. the higher of the repository threshold and the level 
+    of the log4j logger or of its nearest ancestor with a level, and the compiled filters. */
+    private void refreshEffectiveLevel() {
+        int threshold = this.logger.getLoggerRepository().getThreshold().toInt();
+        int level = this.logger.getEffectiveLevel().toInt();
+        this.effectiveLevel = Math.max(threshold, level);
+        this.preFilters = Configurator.preFilters(this.logger.getName());
+        this.destinations = Configurator.destinations(this.logger.getName());
+    }
+    /** 
+    Recompute the cached level of every logger. Called when a level is set through this class 
+    or by the {@link Configurator}, a level set directly on log4j is not seen until then. */
+    static void refreshEffectiveLevels() {
+        for (Logger l : LOGGERS.values()) {
+            l.refreshEffectiveLevel();
+        }
     }
     /** 
     Log a message a CSV file which will be loaded to Tivoli for application monitoring.<br>
@@ -258,33 +702,42 @@ public class Logger {
     /** 
     Log a message a CSV file which will be loaded to Tivoli for application monitoring.<br>
     This printing method will write message to the csv whatever the logging level is.<br>
-    Therefore, you use this method when application monitoring is required.
+    Therefore, you use this method when application monitoring is required.<br>
+    When the system property <code>imLogger.tivoli.aggregateInterval</code> is set, the transactions are
+    counted per <code>appName</code> and one summary record per application is written every interval.
     */
     public void critical(Date testDate, String appName, String result, long elapsedTime, String errMessage) {
     	TivoliLog.log(FQCN, testDate, appName, result, elapsedTime, errMessage);
     }
+    /** 
+    Same as {@link #critical(Date, String, String, long, String)} with the time of the test 
+    given in milliseconds since the epoch, so the caller does not have to create a <code>Date</code>.
+    */
+    public void critical(long testTime, String appName, String result, long elapsedTime, String errMessage) {
+    	TivoliLog.log(FQCN, testTime, appName, result, elapsedTime, errMessage);
+    }
     
 
     public boolean isOff() {
-    	return this.logger.isEnabledFor(Level.OFF);
+    	return this.isEnabled(Level.OFF_INT);
     }
     public boolean isFatal() {
-    	return this.logger.isEnabledFor(Level.FATAL);
+    	return this.isEnabled(Level.FATAL_INT);
     }    
     public boolean isError() {
-    	return this.logger.isEnabledFor(Level.ERROR);
+    	return this.isEnabled(Level.ERROR_INT);
     }
     public boolean isWarn() {
-    	return this.logger.isEnabledFor(Level.WARN);
+    	return this.isEnabled(Level.WARN_INT);
     }
     public boolean isInfo() {
-    	return this.logger.isInfoEnabled();
+    	return this.isEnabled(Level.INFO_INT);
     }    
     public boolean isDebug() {
-    	return this.logger.isDebugEnabled();
+    	return this.isEnabled(Level.DEBUG_INT);
     }
     public boolean isTrace() {
-    	return this.logger.isEnabledFor(Level.TRACE);
+    	return this.isEnabled(Level.TRACE_INT);
     }
 
 
@@ -0,0 +1,99 @@
+package com.imagsky.utility;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.DestinationMetrics;
+import org.apache.log4j.Level;
+
+/**
+   <p><code>LoggerMetrics</code> counts the events of a {@link Logger} accepted and rejected
+   by its level, per level. The counters are <code>LongAdder</code>s and are only created
+   when the metrics are enabled, see {@link DestinationMetrics#ENABLED}.
+ */
+final class LoggerMetrics implements LoggerMetricsMBean {
+
+	static final boolean ENABLED = DestinationMetrics.ENABLED;
+
+	private static final int LEVELS = 6;
+
+	private final String name;
+	private final LongAdder[] accepted = new LongAdder[LEVELS];
+	private final LongAdder[] rejected = new LongAdder[LEVELS];
+
+	LoggerMetrics(String name) {
+		this.name = name;
+		for (int i = 0; i < LEVELS; i++) {
+			accepted[i] = new LongAdder();
+			rejected[i] = new LongAdder();
+		}
+	}
+
+	void record(int level, boolean enabled) {
+		(enabled ? accepted : rejected)[index(level)].increment();
+	}
+
+	private static int index(int level) {
+		switch (level) {
+			case Level.TRACE_INT: return 0;
+			case Level.DEBUG_INT: return 1;
+			case Level.INFO_INT: return 2;
+			case Level.WARN_INT: return 3;
+			case Level.ERROR_INT: return 4;
+			default: return 5;
+		}
+	}
+
+	private static long sum(LongAdder[] counters) {
+		long sum = 0;
+		for (int i = 0; i < LEVELS; i++) {
+			sum += counters[i].sum();
+		}
+		return sum;
+	}
+
+	public String getName() {
+		return name;
+	}
+	public long getAccepted() {
+		return sum(accepted);
+	}
+	public long getRejected() {
+		return sum(rejected);
+	}
+	public long getTraceAccepted() {
+		return accepted[0].sum();
+	}
+	public long getDebugAccepted() {
+		return accepted[1].sum();
+	}
+	public long getInfoAccepted() {
+		return accepted[2].sum();
+	}
+	public long getWarnAccepted() {
+		return accepted[3].sum();
+	}
+	public long getErrorAccepted() {
+		return accepted[4].sum();
+	}
+	public long getFatalAccepted() {
+		return accepted[5].sum();
+	}
+	public long getTraceRejected() {
+		return rejected[0].sum();
+	}
+	public long getDebugRejected() {
+		return rejected[1].sum();
+	}
+	public long getInfoRejected() {
+		return rejected[2].sum();
+	}
+	public long getWarnRejected() {
+		return rejected[3].sum();
+	}
+	public long getErrorRejected() {
+		return rejected[4].sum();
+	}
+	public long getFatalRejected() {
+		return rejected[5].sum();
+	}
+}
@@ -0,0 +1,38 @@
+package com.imagsky.utility;
+
+/**
+   JMX view of {@link LoggerMetrics}. The per level counts are the events passed to the 
+   printing methods of the logger at that level, accepted or rejected by the level of the logger.
+ */
+public interface LoggerMetricsMBean {
+
+	String getName();
+
+	long getAccepted();
+
+	long getRejected();
+
+	long getTraceAccepted();
+
+	long getDebugAccepted();
+
+	long getInfoAccepted();
+
+	long getWarnAccepted();
+
+	long getErrorAccepted();
+
+	long getFatalAccepted();
+
+	long getTraceRejected();
+
+	long getDebugRejected();
+
+	long getInfoRejected();
+
+	long getWarnRejected();
+
+	long getErrorRejected();
+
+	long getFatalRejected();
+}
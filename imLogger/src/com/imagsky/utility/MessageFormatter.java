@@ -0,0 +1,123 @@
+package com.imagsky.utility;
+
+import java.util.Arrays;
+
+/**
+   <p><code>MessageFormatter</code> substitutes the <code>{}</code> placeholders of a 
+   message pattern with the string value of the arguments.
+   
+   <p>The pattern is scanned once from left to right, no <code>MessageFormat</code> or
+   regular expression is involved. A placeholder preceded by a backslash (<code>\{}</code>) 
+   is written literally. Arrays are written with their elements, e.g. <code>[1, 2]</code>.
+   Placeholders without a matching argument are left as they are, extra arguments are ignored.
+*/
+public final class MessageFormatter {
+
+	private static final char DELIM_START = '{';
+	private static final char DELIM_STOP = '}';
+	private static final char ESCAPE_CHAR = '\\';
+
+	private MessageFormatter() {
+	}
+
+	/** Format <code>pattern</code> with the first <code>argCount</code> elements of <code>args</code>. */
+	public static String format(String pattern, Object[] args, int argCount) {
+		if (pattern == null) {
+			return null;
+		}
+		if (args == null || argCount == 0) {
+			return pattern;
+		}
+		StringBuilder sb = new StringBuilder(pattern.length() + 16 * argCount);
+		format(sb, pattern, args, argCount);
+		return sb.toString();
+	}
+
+	/** Append <code>pattern</code> formatted with the first <code>argCount</code> elements of <code>args</code> to <code>sb</code>. */
+	public static void format(StringBuilder sb, String pattern, Object[] args, int argCount) {
+		final int length = pattern.length();
+		int start = 0;
+		int argIndex = 0;
+		while (argIndex < argCount) {
+			int j = indexOfPlaceholder(pattern, start);
+			if (j < 0) {
+				break;
+			}
+			if (isEscaped(pattern, j)) {
+				if (isEscaped(pattern, j - 1)) {
+					//"\\{}" is a literal backslash followed by a placeholder
+					sb.append(pattern, start, j - 1);
+					appendArgument(sb, args[argIndex++]);
+				} else {
+					sb.append(pattern, start, j - 1).append(DELIM_START).append(DELIM_STOP);
+				}
+			} else {
+				sb.append(pattern, start, j);
+				appendArgument(sb, args[argIndex++]);
+			}
+			start = j + 2;
+		}
+		sb.append(pattern, start, length);
+	}
+
+	/** Count the placeholders of <code>pattern</code> which consume an argument. */
+	public static int countPlaceholders(String pattern) {
+		if (pattern == null) {
+			return 0;
+		}
+		int count = 0;
+		int start = 0;
+		int j;
+		while ((j = indexOfPlaceholder(pattern, start)) >= 0) {
+			if (!isEscaped(pattern, j) || isEscaped(pattern, j - 1)) {
+				count++;
+			}
+			start = j + 2;
+		}
+		return count;
+	}
+
+	private static int indexOfPlaceholder(String pattern, int from) {
+		final int last = pattern.length() - 1;
+		for (int i = from; i < last; i++) {
+			if (pattern.charAt(i) == DELIM_START && pattern.charAt(i + 1) == DELIM_STOP) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isEscaped(String pattern, int index) {
+		return index > 0 && pattern.charAt(index - 1) == ESCAPE_CHAR;
+	}
+
+	static void appendArgument(StringBuilder sb, Object arg) {
+		if (arg == null) {
+			sb.append("null");
+		} else if (!arg.getClass().isArray()) {
+			try {
+				sb.append(arg.toString());
+			} catch (RuntimeException e) {
+				sb.append("[FAILED toString() of ").append(arg.getClass().getName()).append(']');
+			}
+		} else if (arg instanceof Object[]) {
+			sb.append(Arrays.deepToString((Object[]) arg));
+		} else if (arg instanceof int[]) {
+			sb.append(Arrays.toString((int[]) arg));
+		} else if (arg instanceof long[]) {
+			sb.append(Arrays.toString((long[]) arg));
+		} else if (arg instanceof byte[]) {
+			sb.append(Arrays.toString((byte[]) arg));
+		} else if (arg instanceof char[]) {
+			sb.append(Arrays.toString((char[]) arg));
+		} else if (arg instanceof short[]) {
+			sb.append(Arrays.toString((short[]) arg));
+		} else if (arg instanceof boolean[]) {
+			sb.append(Arrays.toString((boolean[]) arg));
+		} else if (arg instanceof float[]) {
+			sb.append(Arrays.toString((float[]) arg));
+		} else if (arg instanceof double[]) {
+			sb.append(Arrays.toString((double[]) arg));
+		}
+	}
+}
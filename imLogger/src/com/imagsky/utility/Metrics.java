@@ -0,0 +1,149 @@
+package com.imagsky.utility;
+
+import java.lang.management.ManagementFactory;
+import java.util.Enumeration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.DestinationMetrics;
+import org.apache.log4j.FlightRecorderAppender;
+import org.apache.log4j.MeteredAppender;
+import org.apache.log4j.MeteredLayout;
+import org.apache.log4j.MeteringErrorHandler;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.ErrorHandler;
+
+/**
+   <p>Registers the metrics of the loggers, destinations and <code>TivoliLog</code> as MBeans
+   in the platform MBean server, under the <code>com.imagsky.utility</code> domain:
+   <ul>
+   <li><code>type=Logger,name=&lt;logger&gt;</code></li>
+   <li><code>type=Destination,logger=&lt;logger&gt;,name=&lt;dest&gt;</code></li>
+   <li><code>type=TivoliLog</code></li>
+   </ul>
+   Nothing is registered unless the system property <code>imLogger.metrics</code> is <code>true</code>,
+   except the flight recorders, <code>type=FlightRecorder,logger=&lt;logger&gt;,name=&lt;dest&gt;</code>,
+   which are always registered so they can be dumped, see {@link FlightRecorderAppender}.
+
+   <p>The log4j destinations which do not record their own {@link DestinationMetrics}
+   get a metering layout, counting the events and characters written, and all destinations
+   get an error handler counting the errors they report.
+ */
+final class Metrics {
+
+	static final String DOMAIN = "com.imagsky.utility";
+
+	private Metrics() {
+	}
+
+	static void registerLogger(LoggerMetrics metrics) {
+		register(DOMAIN + ":type=Logger,name=" + ObjectName.quote(metrics.getName()), metrics);
+	}
+
+	static void registerTivoliLog(TivoliLogMetrics metrics) {
+		register(DOMAIN + ":type=TivoliLog", metrics);
+	}
+
+	/** Meter <code>appender</code> and its nested destinations and register them. */
+	static void registerDestination(String loggerName, Appender appender) {
+		registerDestination(loggerName, appender.getName(), appender, true);
+	}
+
+	static void unregisterDestination(String loggerName, Appender appender) {
+		registerDestination(loggerName, appender.getName(), appender, false);
+	}
+
+	/** Nested destinations are named <code>&lt;parent&gt;/&lt;child&gt;</code>. */
+	private static void registerDestination(String loggerName, String name, Appender appender, boolean register) {
+		if (register) {
+			register(destinationName(loggerName, name), meter(appender));
+		} else {
+			unregister(destinationName(loggerName, name));
+		}
+		if (appender instanceof AppenderAttachable) {
+			Enumeration e = ((AppenderAttachable) appender).getAllAppenders();
+			while (e != null && e.hasMoreElements()) {
+				Appender child = (Appender) e.nextElement();
+				registerDestination(loggerName, name + "/" + child.getName(), child, register);
+			}
+		}
+	}
+
+	/** Register <code>appender</code> if it is a flight recorder, and the flight recorders nested in it. */
+	static void registerFlightRecorders(String loggerName, Appender appender) {
+		registerFlightRecorders(loggerName, appender.getName(), appender, true);
+	}
+
+	static void unregisterFlightRecorders(String loggerName, Appender appender) {
+		registerFlightRecorders(loggerName, appender.getName(), appender, false);
+	}
+
+	private static void registerFlightRecorders(String loggerName, String name, Appender appender, boolean register) {
+		if (appender instanceof FlightRecorderAppender) {
+			String objectName = DOMAIN + ":type=FlightRecorder,logger=" + ObjectName.quote(loggerName) + ",name=" + ObjectName.quote(String.valueOf(name));
+			if (register) {
+				register(objectName, appender);
+			} else {
+				unregister(objectName);
+			}
+		}
+		if (appender instanceof AppenderAttachable) {
+			Enumeration e = ((AppenderAttachable) appender).getAllAppenders();
+			while (e != null && e.hasMoreElements()) {
+				Appender child = (Appender) e.nextElement();
+				registerFlightRecorders(loggerName, name + "/" + child.getName(), child, register);
+			}
+		}
+	}
+
+	/** The metrics of <code>appender</code>, installing the metering where needed. */
+	static DestinationMetrics meter(Appender appender) {
+		ErrorHandler errorHandler = appender.getErrorHandler();
+		if (errorHandler instanceof MeteringErrorHandler) {
+			return ((MeteringErrorHandler) errorHandler).getMetrics();
+		}
+		DestinationMetrics metrics;
+		if (appender instanceof MeteredAppender) {
+			metrics = ((MeteredAppender) appender).getMetrics();
+		} else {
+			metrics = new DestinationMetrics();
+			if (appender.getLayout() != null) {
+				appender.setLayout(new MeteredLayout(appender.getLayout(), metrics));
+			}
+		}
+		appender.setErrorHandler(new MeteringErrorHandler(errorHandler, metrics));
+		return metrics;
+	}
+
+	private static String destinationName(String loggerName, String name) {
+		return DOMAIN + ":type=Destination,logger=" + ObjectName.quote(loggerName) + ",name=" + ObjectName.quote(String.valueOf(name));
+	}
+
+	private static void register(String name, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(mbean, objectName);
+		} catch (Exception e) {
+			LogLog.warn("Cannot register MBean [" + name + "].", e);
+		}
+	}
+
+	private static void unregister(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			LogLog.warn("Cannot unregister MBean [" + name + "].", e);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.imagsky.utility;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import org.apache.log4j.LatencyHistogram;
+
+/**
+   <p><code>MonitoringAggregator</code> accumulates the monitoring records of {@link TivoliLog}
+   per application, so one summary record per application is written for an interval instead
+   of one record per transaction.
+
+   <p>The <code>RESULT_OK</code> and <code>RESULT_FAIL</code> counts and the elapsed times are
+   recorded in striped cells, <code>LongAdder</code> and {@link LatencyHistogram}, without locking.
+   The cells are never reset, {@link #drain(long)} reports what was recorded since its previous
+   call, so a record which arrives while the summary is built is reported with the next one.
+
+   <p>A summary record has the usual CSV columns: the time of the summary, the application,
+   <code>RESULT_FAIL</code> if any of its transactions failed, the median elapsed time and the message
+   <p>
+   <code>count=n ok=n fail=n min=n p50=n p95=n p99=n max=n</code>
+   </p>
+   <p>The percentiles are accurate to 12.5%, the minimum and maximum are exact.
+*/
+final class MonitoringAggregator {
+
+	private static final LongBinaryOperator MIN = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.min(left, right);
+		}
+	};
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	/** The cells of one application. */
+	private static final class App {
+		final String name;
+		final LongAdder ok = new LongAdder();
+		final LongAdder fail = new LongAdder();
+		final LatencyHistogram elapsed = new LatencyHistogram();
+		final LongAccumulator min = new LongAccumulator(MIN, Long.MAX_VALUE);
+		final LongAccumulator max = new LongAccumulator(MAX, Long.MIN_VALUE);
+		//what the previous summary reported, only used by drain
+		long reportedOk;
+		long reportedFail;
+		long[] reportedCounts;
+		App(String name) {
+			this.name = name;
+			this.reportedCounts = elapsed.getCounts();
+		}
+	}
+
+	private final ConcurrentHashMap apps = new ConcurrentHashMap();
+	private final MonitoringRecordEncoder encoder;
+
+	MonitoringAggregator(MonitoringRecordEncoder encoder) {
+		this.encoder = encoder;
+	}
+
+	void record(String appName, String result, long elapsedTime) {
+		String key = appName == null ? "null" : appName;
+		App app = (App) apps.get(key);
+		if (app == null) {
+			App created = new App(key);
+			app = (App) apps.putIfAbsent(key, created);
+			if (app == null) {
+				app = created;
+			}
+		}
+		if (MonitoringRecordEncoder.RESULT_OK.equals(result)) {
+			app.ok.increment();
+		} else {
+			app.fail.increment();
+		}
+		long elapsed = Math.max(0, elapsedTime);
+		app.elapsed.record(elapsed);
+		app.min.accumulate(elapsed);
+		app.max.accumulate(elapsed);
+	}
+
+	/** The summary records, without line separator, of the applications with transactions since the previous call. */
+	synchronized List drain(long time) {
+		ArrayList records = new ArrayList();
+		Iterator i = apps.values().iterator();
+		while (i.hasNext()) {
+			App app = (App) i.next();
+			long ok = app.ok.sum();
+			long fail = app.fail.sum();
+			long okCount = ok - app.reportedOk;
+			long failCount = fail - app.reportedFail;
+			if (okCount + failCount == 0) {
+				continue;
+			}
+			app.reportedOk = ok;
+			app.reportedFail = fail;
+			long[] counts = app.elapsed.getCounts();
+			long[] interval = new long[counts.length];
+			for (int b = 0; b < counts.length; b++) {
+				interval[b] = counts[b] - app.reportedCounts[b];
+			}
+			app.reportedCounts = counts;
+			//a record in flight may be counted before its elapsed time is seen
+			long min = app.min.getThenReset();
+			long max = app.max.getThenReset();
+			if (max < min) {
+				min = 0;
+				max = 0;
+			}
+			long p50 = LatencyHistogram.getPercentile(interval, 0.5, max);
+			StringBuilder message = new StringBuilder(96);
+			message.append("count=").append(okCount + failCount);
+			message.append(" ok=").append(okCount);
+			message.append(" fail=").append(failCount);
+			message.append(" min=").append(min);
+			message.append(" p50=").append(p50);
+			message.append(" p95=").append(LatencyHistogram.getPercentile(interval, 0.95, max));
+			message.append(" p99=").append(LatencyHistogram.getPercentile(interval, 0.99, max));
+			message.append(" max=").append(max);
+			String result = failCount > 0 ? MonitoringRecordEncoder.RESULT_FAIL : MonitoringRecordEncoder.RESULT_OK;
+			records.add(encoder.encode(time, app.name, result, p50, message.toString()));
+		}
+		return records;
+	}
+}
@@ -0,0 +1,104 @@
+package com.imagsky.utility;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+   <p><code>MonitoringRecordEncoder</code> builds the CSV line written by {@link TivoliLog} 
+   for a monitored transaction:
+   <p>
+   <code>dd/MM/yyyy,HH:mm:ss, appName, result, elapsedTime, errMessage</code>
+   </p>
+   
+   <p>Each thread keeps the date text of the last second it formatted, so threads logging
+   in different seconds do not replace each other's text. The line is appended to a reusable per-thread buffer, <code>appName</code> and 
+   <code>errMessage</code> are quoted when they contain a comma, a quote or a line break.
+*/
+final class MonitoringRecordEncoder {
+
+	static final String DATE_FORMAT = "dd/MM/yyyy,HH:mm:ss";
+	static final String RESULT_OK = "RESULT_OK";
+	static final String RESULT_FAIL = "RESULT_FAIL";
+
+	private static final String SEPARATOR = ", ";
+	private static final int MAX_RETAINED_CAPACITY = 1024;
+
+	private static final ThreadLocal DATE_CACHE = new ThreadLocal() {
+		protected Object initialValue() {
+			return new CachedDate();
+		}
+	};
+	private static final ThreadLocal BUFFER = new ThreadLocal() {
+		protected Object initialValue() {
+			return new StringBuilder(128);
+		}
+	};
+
+	/** The text of the last second formatted by a thread. */
+	private static final class CachedDate {
+		final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+		long second = Long.MIN_VALUE;
+		String text;
+	}
+
+	/** Return the CSV line of a monitoring record, without line separator. */
+	String encode(long time, String appName, String result, long elapsedTime, String errMessage) {
+		StringBuilder sb = (StringBuilder) BUFFER.get();
+		if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+			sb = new StringBuilder(128);
+			BUFFER.set(sb);
+		} else {
+			sb.setLength(0);
+		}
+		append(sb, time, appName, result, elapsedTime, errMessage);
+		return sb.toString();
+	}
+
+	/** Append the CSV line of a monitoring record to <code>sb</code>, without line separator. */
+	void append(StringBuilder sb, long time, String appName, String result, long elapsedTime, String errMessage) {
+		sb.append(formatDate(time)).append(SEPARATOR);
+		appendField(sb, appName);
+		sb.append(SEPARATOR);
+		sb.append(RESULT_OK.equals(result) ? RESULT_OK : RESULT_FAIL).append(SEPARATOR);
+		sb.append(elapsedTime).append(SEPARATOR);
+		appendField(sb, errMessage);
+	}
+
+	/** Return <code>time</code> formatted with {@link #DATE_FORMAT}. */
+	String formatDate(long time) {
+		long second = Math.floorDiv(time, 1000L);
+		CachedDate c = (CachedDate) DATE_CACHE.get();
+		if (c.second != second) {
+			c.text = c.format.format(new Date(time));
+			c.second = second;
+		}
+		return c.text;
+	}
+
+	/** Append a CSV field, quoted and with doubled quotes if it contains a separator, a quote or a line break. */
+	static void appendField(StringBuilder sb, String s) {
+		if (s == null) {
+			sb.append("null");
+			return;
+		}
+		final int length = s.length();
+		boolean quote = false;
+		for (int i = 0; i < length && !quote; i++) {
+			char c = s.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			sb.append(s);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				sb.append('"');
+			}
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+}
@@ -0,0 +1,53 @@
+package com.imagsky.utility;
+
+import org.apache.log4j.MessageTemplate;
+
+/**
+   <p><code>ParameterizedMessage</code> is the message object created by the 
+   parameterized printing methods of {@link Logger}, e.g. {@link Logger#debug(String, Object)}.
+   
+   <p>It keeps the pattern and the arguments and only formats them with 
+   {@link MessageFormatter} when the message is rendered by a destination. 
+   The formatted text is cached, so it is built at most once per event.
+*/
+public class ParameterizedMessage implements MessageTemplate {
+
+	private final String pattern;
+	private final Object[] args;
+	private final int argCount;
+	private String formatted;
+
+	public ParameterizedMessage(String pattern, Object[] args, int argCount) {
+		this.pattern = pattern;
+		this.args = args;
+		this.argCount = argCount;
+	}
+
+	/** The message pattern with <code>{}</code> placeholders */
+	public String getPattern() {
+		return this.pattern;
+	}
+
+	/** The arguments substituted into the pattern. The array may be longer than {@link #getArgumentCount()}. */
+	public Object[] getArguments() {
+		return this.args;
+	}
+
+	public int getArgumentCount() {
+		return this.argCount;
+	}
+
+	/** Return the formatted message */
+	public String getFormattedMessage() {
+		String s = this.formatted;
+		if (s == null) {
+			s = MessageFormatter.format(this.pattern, this.args, this.argCount);
+			this.formatted = s;
+		}
+		return s;
+	}
+
+	public String toString() {
+		return getFormattedMessage();
+	}
+}
@@ -0,0 +1,233 @@
+package com.imagsky.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.Filter;
+
+/**
+   <p><code>PreFilter</code> is a predicate of the logger level filter stage. The stage is
+   configured with <code>filter</code> elements inside <code>logger</code> and runs in the
+   printing methods of {@link Logger} after the level check, before the logging event is
+   created, so it is evaluated once for all the destinations and a rejected call allocates
+   nothing.
+
+   <p>Each predicate returns <b>OnMatch</b> (<code>DENY</code> by default) when it matches
+   and <b>OnMismatch</b> (<code>NEUTRAL</code> by default) otherwise. The first decision which
+   is not <code>NEUTRAL</code> wins; a call is accepted when all predicates are neutral. The types are:
+   <ul>
+   <li><code>LEVEL_RANGE</code> - the level is between <b>LevelMin</b> and <b>LevelMax</b>.</li>
+   <li><code>LOGGER_NAME</code> - the logger name starts with <b>Prefix</b>.</li>
+   <li><code>MDC</code> - the {@link LogContext} or MDC value of <b>Key</b> is <b>Value</b>, or is set when there is no <b>Value</b>.</li>
+   <li><code>TEMPLATE</code> - the message pattern, or a <code>String</code> message, is <b>Value</b>;
+   a <b>Value</b> ending with <code>*</code> matches the messages which start with the rest.
+   The message of a <code>Supplier</code> is not known before the call and never matches.</li>
+   </ul>
+
+   <p>The predicates are compiled with {@link #compile(String, List)} into a flat array when
+   the logger is configured. The logger name is fixed by then, so <code>LOGGER_NAME</code>
+   predicates are resolved during the compilation and cost nothing per call.
+ */
+public abstract class PreFilter {
+
+	protected int onMatch = Filter.DENY;
+	protected int onMismatch = Filter.NEUTRAL;
+
+	/** <code>true</code> if a call with <code>level</code> and <code>message</code> matches. */
+	protected abstract boolean matches(int level, Object message);
+
+	/** <code>ACCEPT</code>, <code>DENY</code> or <code>NEUTRAL</code>, see {@link Filter}. */
+	public final int decide(int level, Object message) {
+		return matches(level, message) ? onMatch : onMismatch;
+	}
+
+	/** The filter for the type of a <code>filter</code> element, <code>null</code> for an unknown type. */
+	public static PreFilter forType(String type) {
+		if ("LEVEL_RANGE".equals(type)) {
+			return new LevelRange();
+		} else if ("LOGGER_NAME".equals(type)) {
+			return new LoggerName();
+		} else if ("MDC".equals(type)) {
+			return new MdcMatch();
+		} else if ("TEMPLATE".equals(type)) {
+			return new TemplateMatch();
+		}
+		return null;
+	}
+
+	/**
+	 * Compile the filters of the logger <code>loggerName</code>, in their order, into the array
+	 * evaluated by {@link #accept(PreFilter[], int, Object)}. <code>null</code> when every call is
+	 * accepted.
+	 */
+	public static PreFilter[] compile(String loggerName, List filters) {
+		List compiled = new ArrayList();
+		for (int i = 0; i < filters.size(); i++) {
+			PreFilter f = (PreFilter) filters.get(i);
+			if (f instanceof LoggerName) {
+				((LoggerName) f).setName(loggerName);
+				int decision = f.decide(0, null);
+				if (decision == Filter.NEUTRAL) {
+					continue;
+				}
+				//the following filters are never reached
+				compiled.add(new Constant(decision));
+				break;
+			}
+			if (f.onMatch != Filter.NEUTRAL || f.onMismatch != Filter.NEUTRAL) {
+				compiled.add(f);
+			}
+		}
+		while (!compiled.isEmpty() && compiled.get(compiled.size() - 1) instanceof Constant
+				&& ((PreFilter) compiled.get(compiled.size() - 1)).onMatch == Filter.ACCEPT) {
+			compiled.remove(compiled.size() - 1);
+		}
+		if (compiled.isEmpty()) {
+			return null;
+		}
+		return (PreFilter[]) compiled.toArray(new PreFilter[compiled.size()]);
+	}
+
+	/** Evaluate compiled filters, see {@link #compile(String, List)}. */
+	public static boolean accept(PreFilter[] filters, int level, Object message) {
+		for (int i = 0; i < filters.length; i++) {
+			switch (filters[i].decide(level, message)) {
+				case Filter.DENY: return false;
+				case Filter.ACCEPT: return true;
+			}
+		}
+		return true;
+	}
+
+	private static int toDecision(String value) {
+		value = value.trim().toUpperCase();
+		if ("ACCEPT".equals(value)) {
+			return Filter.ACCEPT;
+		} else if ("DENY".equals(value)) {
+			return Filter.DENY;
+		}
+		return Filter.NEUTRAL;
+	}
+
+	private static String toString(int decision) {
+		return decision == Filter.ACCEPT ? "ACCEPT" : decision == Filter.DENY ? "DENY" : "NEUTRAL";
+	}
+
+	/** <code>ACCEPT</code>, <code>DENY</code> or <code>NEUTRAL</code>. */
+	public void setOnMatch(String onMatch) {
+		this.onMatch = toDecision(onMatch);
+	}
+	public String getOnMatch() {
+		return toString(onMatch);
+	}
+	/** <code>ACCEPT</code>, <code>DENY</code> or <code>NEUTRAL</code>. */
+	public void setOnMismatch(String onMismatch) {
+		this.onMismatch = toDecision(onMismatch);
+	}
+	public String getOnMismatch() {
+		return toString(onMismatch);
+	}
+
+	/** The decision of a resolved <code>LOGGER_NAME</code> filter. */
+	static final class Constant extends PreFilter {
+		Constant(int decision) {
+			this.onMatch = decision;
+		}
+		protected boolean matches(int level, Object message) {
+			return true;
+		}
+	}
+
+	/** <code>LEVEL_RANGE</code> filter. */
+	public static class LevelRange extends PreFilter {
+		private int min = Level.ALL_INT;
+		private int max = Level.OFF_INT;
+
+		protected boolean matches(int level, Object message) {
+			return level >= min && level <= max;
+		}
+		public void setLevelMin(String level) {
+			this.min = Level.toLevel(level, Level.ALL).toInt();
+		}
+		public String getLevelMin() {
+			return Level.toLevel(min).toString();
+		}
+		public void setLevelMax(String level) {
+			this.max = Level.toLevel(level, Level.OFF).toInt();
+		}
+		public String getLevelMax() {
+			return Level.toLevel(max).toString();
+		}
+	}
+
+	/** <code>LOGGER_NAME</code> filter, resolved by {@link PreFilter#compile(String, List)}. */
+	public static class LoggerName extends PreFilter {
+		private String prefix = "";
+		private String name;
+
+		protected boolean matches(int level, Object message) {
+			return name != null && name.startsWith(prefix);
+		}
+		public void setPrefix(String prefix) {
+			this.prefix = prefix;
+		}
+		public String getPrefix() {
+			return prefix;
+		}
+		void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	/** <code>MDC</code> filter. */
+	public static class MdcMatch extends PreFilter {
+		private String key;
+		private String value;
+
+		protected boolean matches(int level, Object message) {
+			if (key == null) {
+				return false;
+			}
+			Object v = LogContext.current().get(key);
+			if (v == null) {
+				v = MDC.get(key);
+			}
+			return value == null ? v != null : value.equals(v);
+		}
+		public void setKey(String key) {
+			this.key = key;
+		}
+		public String getKey() {
+			return key;
+		}
+		public void setValue(String value) {
+			this.value = value;
+		}
+		public String getValue() {
+			return value;
+		}
+	}
+
+	/** <code>TEMPLATE</code> filter. */
+	public static class TemplateMatch extends PreFilter {
+		private String value;
+		private boolean prefix;
+
+		protected boolean matches(int level, Object message) {
+			if (value == null || !(message instanceof String)) {
+				return false;
+			}
+			String s = (String) message;
+			return prefix ? s.startsWith(value) : s.equals(value);
+		}
+		public void setValue(String value) {
+			this.prefix = value.endsWith("*");
+			this.value = prefix ? value.substring(0, value.length() - 1) : value;
+		}
+		public String getValue() {
+			return prefix ? value + "*" : value;
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package com.imagsky.utility;
 
+import org.apache.log4j.Appender;
 import org.apache.log4j.Level;
 import org.apache.log4j.FileAppender;
+import org.apache.log4j.FileDestination;
+import org.apache.log4j.FlightRecorderAppender;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
 
 import java.io.File;
 import java.io.PrintWriter;
@@ -10,16 +15,37 @@ import java.io.FileWriter;
 
 import java.util.Enumeration;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import java.text.SimpleDateFormat;
+/**
+   <p>Writes the monitoring records of <code>Logger.critical</code> to the destinations of the 
+   <code>tivoli</code> logger.
 
+   <p>When the system property <code>imLogger.tivoli.aggregateInterval</code> is set to a number of 
+   milliseconds, the records of <code>critical(Date, appName, result, elapsedTime, errMessage)</code> 
+   are not written one by one but accumulated per application, and one summary record per 
+   application is written every interval, see {@link MonitoringAggregator}. With 
+   <code>imLogger.tivoli.failuresImmediate</code> set to <code>true</code> the failed transactions 
+   are also written at once, they are still counted in the summary.
+ */
 class TivoliLog {
 
+	public static final String AGGREGATE_INTERVAL_PROPERTY = "imLogger.tivoli.aggregateInterval";
+	public static final String FAILURES_IMMEDIATE_PROPERTY = "imLogger.tivoli.failuresImmediate";
+
 	private static org.apache.log4j.Logger logger; 
+	private static volatile int generation;
 	
 	private static final String FQCN = (com.imagsky.utility.TivoliLog.class).getName() + ".";
-	private static final String DATE_FORMAT = "dd/MM/yyyy,HH:mm:ss";
 	private static final String LOG_HEADER = "Date, Time, Resource, Result, Elapsed Time, Message";
+	private static final MonitoringRecordEncoder ENCODER = new MonitoringRecordEncoder();
+	private static final TivoliLogMetrics METRICS = new TivoliLogMetrics();
+	private static final long AGGREGATE_INTERVAL = Long.getLong(AGGREGATE_INTERVAL_PROPERTY, 0).longValue();
+	private static final boolean FAILURES_IMMEDIATE = Boolean.getBoolean(FAILURES_IMMEDIATE_PROPERTY);
+	private static final MonitoringAggregator AGGREGATOR = AGGREGATE_INTERVAL > 0 ? new MonitoringAggregator(ENCODER) : null;
 	
 	static {
 		try {
@@ -27,54 +53,144 @@ class TivoliLog {
 			configurator.loadConfigurationFile();
 			configurator.configure();
 			logger = org.apache.log4j.Logger.getLogger("tivoli");
-				
-			//check whether the output file is empty,
-			//if yes, print the header of the csv first
-			
-			Enumeration e = logger.getAllAppenders();
-			while (e.hasMoreElements()) {
-				Object obj = e.nextElement();
-				if (obj instanceof FileAppender) {
-					FileAppender fa = (FileAppender) obj;
-					File f = new File(fa.getFile());
-					if (f.length() == 0) {
-						PrintWriter out = null;
-						try {
-							out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
-							out.println(LOG_HEADER);			
-						} finally {
-							if (out != null) out.close();
-						}
-					}
-				}
-			}	
-			
+			writeHeaders();
+			if (LoggerMetrics.ENABLED) {
+				Metrics.registerTivoliLog(METRICS);
+			}
+			if (AGGREGATOR != null) {
+				startAggregation();
+			}
 		} catch (java.io.IOException e) {
-			e.printStackTrace();
+			LogLog.error("Cannot load the configuration of logger [tivoli].", e);
 			throw new java.lang.NullPointerException("Cannot create tivoli logger, please check the configuration file!");
 		}
 	}
 
+	/** Write the header to the empty files of the destinations, e.g. after the configuration has been reloaded. */
+	private static synchronized void writeHeaders() throws java.io.IOException {
+		generation = Configurator.generation();
+		
+		//check whether the output file is empty,
+		//if yes, print the header of the csv first
+		
+		Enumeration e = logger.getAllAppenders();
+		while (e.hasMoreElements()) {
+			Object obj = e.nextElement();
+			if (obj instanceof FileDestination) {
+				((FileDestination) obj).writeHeaderIfEmpty(LOG_HEADER);
+			} else if (obj instanceof FileAppender) {
+				FileAppender fa = (FileAppender) obj;
+				File f = new File(fa.getFile());
+				if (f.length() == 0) {
+					PrintWriter out = null;
+					try {
+						out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+						out.println(LOG_HEADER);			
+					} finally {
+						if (out != null) out.close();
+					}
+				}
+			}
+		}	
+	}
+
 	public static void log(String callerFQCN, Object obj) {
 		log(callerFQCN, obj, null);
 	}
 
 	public static void log(String callerFQCN, Object obj, Throwable throwable) {
 		logger.log(callerFQCN, Level.FATAL, obj, throwable);
+		FlightRecorderAppender.dumpForCritical();
 	}
 
 	public static void log(String callerFQCN, Date testDate, String appName, String result, long elapsedTime, String errMessage) {
-		SimpleDateFormat formatter = new SimpleDateFormat(DATE_FORMAT);
-		String strDate = formatter.format(testDate);
-		formatter = null;		
-		
-		if (!"RESULT_OK".equals(result)) {
-			result = "RESULT_FAIL";
+		log(callerFQCN, testDate.getTime(), appName, result, elapsedTime, errMessage);
+	}
+
+	public static void log(String callerFQCN, long testTime, String appName, String result, long elapsedTime, String errMessage) {
+		if (!logger.isEnabledFor(Level.INFO)) {
+			return;
+		}
+		if (!MonitoringRecordEncoder.RESULT_OK.equals(result)) {
+			FlightRecorderAppender.dumpForCritical();
+		}
+		if (AGGREGATOR != null) {
+			AGGREGATOR.record(appName, result, elapsedTime);
+			if (LoggerMetrics.ENABLED) {
+				METRICS.recordAggregated();
+			}
+			if (!FAILURES_IMMEDIATE || MonitoringRecordEncoder.RESULT_OK.equals(result)) {
+				return;
+			}
+		}
+		write(callerFQCN, ENCODER.encode(testTime, appName, result, elapsedTime, errMessage));
+		if (LoggerMetrics.ENABLED) {
+			METRICS.recordCritical();
+		}
+	}
+
+	/** Write the summary records of the aggregated transactions since the previous call. */
+	static void flushAggregation() {
+		if (AGGREGATOR == null || !logger.isEnabledFor(Level.INFO)) {
+			return;
+		}
+		Iterator i = AGGREGATOR.drain(System.currentTimeMillis()).iterator();
+		while (i.hasNext()) {
+			write(FQCN, (String) i.next());
+			if (LoggerMetrics.ENABLED) {
+				METRICS.recordSummary();
+			}
+		}
+	}
+
+	/** Flush the aggregated transactions every interval and when the JVM exits. */
+	private static void startAggregation() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "imLogger-TivoliAggregation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Runnable flush = new Runnable() {
+			public void run() {
+				try {
+					flushAggregation();
+				} catch (RuntimeException e) {
+					LogLog.error("Cannot write the monitoring summary.", e);
+				}
+			}
+		};
+		executor.scheduleAtFixedRate(flush, AGGREGATE_INTERVAL, AGGREGATE_INTERVAL, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(flush, "imLogger-TivoliAggregationFlush"));
+	}
+
+	private static void write(String callerFQCN, String record) {
+		//call the destinations directly rather than through the logger, which serializes
+		//all callers and would leave nothing for a group commit destination to batch
+		LoggingEvent event = new LoggingEvent(callerFQCN, logger, Level.INFO, record, null);
+		if (generation != Configurator.generation()) {
+			try {
+				writeHeaders();
+			} catch (java.io.IOException e) {
+				LogLog.error("Cannot reload the tivoli destinations.", e);
+			}
+		}
+		DestinationSnapshot destinations = Configurator.destinations(logger.getName());
+		while (destinations != null && !destinations.enter()) {
+			destinations = Configurator.destinations(logger.getName());
+		}
+		if (destinations == null) {
+			logger.callAppenders(event);
+			return;
+		}
+		try {
+			Appender[] appenders = destinations.appenders;
+			for (int i = 0; i < appenders.length; i++) {
+				appenders[i].doAppend(event);
+			}
+		} finally {
+			destinations.exit();
 		}
-		logger.log(callerFQCN, Level.INFO, strDate + ", " + 
-																			appName + ", " + 
-																			result + ", " + 
-																			elapsedTime + ", " + 
-																			errMessage, null);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.imagsky.utility;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+   Counts the monitoring records written to the Tivoli CSV.
+ */
+final class TivoliLogMetrics implements TivoliLogMetricsMBean {
+
+	private final LongAdder criticalRecords = new LongAdder();
+	private final LongAdder aggregatedRecords = new LongAdder();
+	private final LongAdder summaryRecords = new LongAdder();
+
+	void recordCritical() {
+		criticalRecords.increment();
+	}
+
+	void recordAggregated() {
+		aggregatedRecords.increment();
+	}
+
+	void recordSummary() {
+		summaryRecords.increment();
+	}
+
+	public long getCriticalRecords() {
+		return criticalRecords.sum();
+	}
+
+	public long getAggregatedRecords() {
+		return aggregatedRecords.sum();
+	}
+
+	public long getSummaryRecords() {
+		return summaryRecords.sum();
+	}
+}
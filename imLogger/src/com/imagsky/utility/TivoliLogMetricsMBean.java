@@ -0,0 +1,15 @@
+package com.imagsky.utility;
+
+/**
+   JMX view of the monitoring records written by <code>Logger.critical</code>.
+ */
+public interface TivoliLogMetricsMBean {
+
+	long getCriticalRecords();
+
+	/** Transactions accumulated in the summaries of the aggregation mode. */
+	long getAggregatedRecords();
+
+	/** Summary records written by the aggregation mode. */
+	long getSummaryRecords();
+}
@@ -0,0 +1,355 @@
+package org.apache.log4j;
+
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>AsyncRingBufferAppender</code> hands logging events over to a dedicated
+ * consumer thread which writes them to the attached (child) appenders.
+ *
+ * <p>The events are passed through a bounded, preallocated ring buffer. Producers
+ * claim a slot with a single CAS and never take a lock, so the cost on the calling
+ * thread is the filter chain plus one enqueue. The behaviour when the buffer is full
+ * is selected by the <b>Policy</b> option:
+ * <ul>
+ * <li><code>BLOCK</code> - the caller waits until the consumer frees a slot (default).</li>
+ * <li><code>DROP_LOWEST_LEVEL</code> - events at or below <b>DiscardThreshold</b>
+ * (default <code>INFO</code>) are dropped, more severe events wait for a slot.</li>
+ * <li><code>DROP_NEWEST</code> - the incoming event is dropped.</li>
+ * </ul>
+ *
+ * <p>The message is rendered before the event is queued, as log4j's <code>AsyncAppender</code>
+ * does, so it shows the objects as they were when the event was logged and their
+ * <code>toString</code> does not run while the caller changes them. The thread name, NDC,
+ * MDC and, with <b>LocationInfo</b>, the caller are captured as well. A <code>BINARY</code>
+ * child still stores the arguments of a parameterized message, those other than strings,
+ * numbers and booleans as their text when the event is dequeued.
+ *
+ * <p>{@link #close()} stops accepting events, drains everything already in the
+ * buffer to the child appenders and then closes them. A shutdown hook does the same
+ * when the JVM exits without the appender being closed.
+ */
+public class AsyncRingBufferAppender extends AppenderSkeleton implements AppenderAttachable, MeteredAppender {
+
+	public static final String POLICY_BLOCK = "BLOCK";
+	public static final String POLICY_DROP_LOWEST_LEVEL = "DROP_LOWEST_LEVEL";
+	public static final String POLICY_DROP_NEWEST = "DROP_NEWEST";
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private static final long IDLE_PARK_NANOS = 10000000L;
+	private static final long FULL_PARK_NANOS = 100000L;
+
+	private final AppenderAttachableImpl aai = new AppenderAttachableImpl();
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private String policy = POLICY_BLOCK;
+	private Level discardThreshold = Level.INFO;
+	private boolean locationInfo = false;
+
+	private LoggingEvent[] slots;
+	private AtomicLongArray sequences;
+	private int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+	private final AtomicLong discarded = new AtomicLong();
+	private final DestinationMetrics metrics = new DestinationMetrics();
+
+	private volatile boolean running = false;
+	private volatile boolean consumerParked = false;
+	private Thread consumer;
+	private Thread shutdownHook;
+
+	public void activateOptions() {
+		int capacity = 1;
+		while (capacity < bufferSize) {
+			capacity <<= 1;
+		}
+		this.slots = new LoggingEvent[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			this.sequences.set(i, i);
+		}
+		this.mask = capacity - 1;
+
+		this.running = true;
+		this.consumer = new Thread(new Runnable() {
+			public void run() {
+				consume();
+			}
+		}, "AsyncRingBufferAppender-" + name);
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+
+		this.shutdownHook = new Thread(new Runnable() {
+			public void run() {
+				close();
+			}
+		}, "AsyncRingBufferAppender-" + name + "-shutdown");
+		Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+	}
+
+	/**
+	 * Same contract as {@link AppenderSkeleton#doAppend(LoggingEvent)} but without
+	 * synchronizing on the appender; the ring buffer is safe for concurrent producers.
+	 */
+	public void doAppend(LoggingEvent event) {
+		if (closed || !running) {
+			return;
+		}
+		if (!isAsSevereAsThreshold(event.getLevel())) {
+			return;
+		}
+		Filter f = this.headFilter;
+		FILTER_LOOP:
+		while (f != null) {
+			switch (f.decide(event)) {
+				case Filter.DENY: return;
+				case Filter.ACCEPT: break FILTER_LOOP;
+				case Filter.NEUTRAL: f = f.getNext();
+			}
+		}
+		if (DestinationMetrics.ENABLED) {
+			long start = System.nanoTime();
+			append(event);
+			metrics.recordAppend(0, System.nanoTime() - start);
+		} else {
+			append(event);
+		}
+	}
+
+	protected void append(LoggingEvent event) {
+		//the consumer runs on another thread, capture the thread dependent values and the message now
+		event.getRenderedMessage();
+		event.getNDC();
+		event.getThreadName();
+		event.getMDCCopy();
+		if (locationInfo) {
+			event.getLocationInformation();
+		}
+
+		if (!offer(event)) {
+			if (POLICY_DROP_NEWEST.equals(policy)
+					|| (POLICY_DROP_LOWEST_LEVEL.equals(policy) && discardThreshold.isGreaterOrEqual(event.getLevel()))) {
+				discarded.incrementAndGet();
+				return;
+			}
+			while (!offer(event)) {
+				if (!running) {
+					discarded.incrementAndGet();
+					return;
+				}
+				LockSupport.unpark(consumer);
+				LockSupport.parkNanos(this, FULL_PARK_NANOS);
+			}
+		}
+		if (consumerParked) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	private boolean offer(LoggingEvent event) {
+		while (true) {
+			long pos = tail.get();
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					slots[index] = event;
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				return false;
+			}
+		}
+	}
+
+	private LoggingEvent poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		LoggingEvent event = slots[index];
+		slots[index] = null;
+		sequences.lazySet(index, head + slots.length);
+		head++;
+		return event;
+	}
+
+	private void consume() {
+		while (running) {
+			LoggingEvent event = poll();
+			if (event != null) {
+				dispatch(event);
+				continue;
+			}
+			consumerParked = true;
+			if (running && sequences.get((int) head & mask) != head + 1) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+			consumerParked = false;
+		}
+		drain();
+	}
+
+	/** Dispatch the queued events, only called by the consumer or, once it has ended, by {@link #close()}. */
+	private void drain() {
+		while (true) {
+			LoggingEvent event = poll();
+			if (event != null) {
+				dispatch(event);
+				continue;
+			}
+			//a producer may have claimed a slot but not published it yet
+			if (tail.get() == head) {
+				return;
+			}
+			Thread.yield();
+		}
+	}
+
+	private void dispatch(LoggingEvent event) {
+		try {
+			synchronized (aai) {
+				aai.appendLoopOnAppenders(event);
+			}
+		} catch (RuntimeException e) {
+			errorHandler.error("Child appender of " + name + " failed.", e, 0, event);
+		}
+	}
+
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		running = false;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+			if (Thread.currentThread() != consumer) {
+				try {
+					consumer.join();
+					//a producer which passed the running check may have published after the last drain of the consumer
+					drain();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				//JVM is already shutting down
+			}
+		}
+		if (discarded.get() > 0) {
+			LogLog.warn(name + " discarded " + discarded.get() + " events because the buffer was full.");
+		}
+		synchronized (aai) {
+			Enumeration e = aai.getAllAppenders();
+			if (e != null) {
+				while (e.hasMoreElements()) {
+					((Appender) e.nextElement()).close();
+				}
+			}
+		}
+	}
+
+	public boolean requiresLayout() {
+		return false;
+	}
+
+	public void addAppender(Appender newAppender) {
+		synchronized (aai) {
+			aai.addAppender(newAppender);
+		}
+	}
+	public Enumeration getAllAppenders() {
+		synchronized (aai) {
+			return aai.getAllAppenders();
+		}
+	}
+	public Appender getAppender(String name) {
+		synchronized (aai) {
+			return aai.getAppender(name);
+		}
+	}
+	public boolean isAttached(Appender appender) {
+		synchronized (aai) {
+			return aai.isAttached(appender);
+		}
+	}
+	public void removeAllAppenders() {
+		synchronized (aai) {
+			aai.removeAllAppenders();
+		}
+	}
+	public void removeAppender(Appender appender) {
+		synchronized (aai) {
+			aai.removeAppender(appender);
+		}
+	}
+	public void removeAppender(String name) {
+		synchronized (aai) {
+			aai.removeAppender(name);
+		}
+	}
+
+	/** Capacity of the ring buffer, rounded up to the next power of two. */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize < 1 ? 1 : bufferSize;
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	/** Full-buffer policy, one of <code>BLOCK</code>, <code>DROP_LOWEST_LEVEL</code> or <code>DROP_NEWEST</code>. */
+	public void setPolicy(String policy) {
+		String p = policy == null ? "" : policy.trim().toUpperCase();
+		if (POLICY_BLOCK.equals(p) || POLICY_DROP_LOWEST_LEVEL.equals(p) || POLICY_DROP_NEWEST.equals(p)) {
+			this.policy = p;
+		} else {
+			LogLog.warn("Unknown policy [" + policy + "] for " + name + ", using " + POLICY_BLOCK + ".");
+			this.policy = POLICY_BLOCK;
+		}
+	}
+	public String getPolicy() {
+		return policy;
+	}
+	/** Highest level which may be dropped under the <code>DROP_LOWEST_LEVEL</code> policy. */
+	public void setDiscardThreshold(String level) {
+		this.discardThreshold = Level.toLevel(level, Level.INFO);
+	}
+	public String getDiscardThreshold() {
+		return discardThreshold.toString();
+	}
+	/** 
+	 * Capture the caller location before the event is queued. Required by layouts using %C, %F, %L, %l or %M, 
+	 * the configuration file turns it on when a nested destination needs it unless the option is set.
+	 */
+	public void setLocationInfo(boolean locationInfo) {
+		this.locationInfo = locationInfo;
+	}
+	public boolean getLocationInfo() {
+		return locationInfo;
+	}
+	/** Number of events dropped because the buffer was full. */
+	public long getDiscardedCount() {
+		return discarded.get();
+	}
+	/** Events queued and the time taken to queue them, the children record their writes themselves. */
+	public DestinationMetrics getMetrics() {
+		return metrics;
+	}
+}
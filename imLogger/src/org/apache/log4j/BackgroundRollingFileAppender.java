@@ -0,0 +1,577 @@
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>BackgroundRollingFileAppender</code> rolls the log file over without making
+ * the logging threads wait for the old file.
+ *
+ * <p>A rollover is triggered by the <b>DatePattern</b> period, e.g.
+ * <code>'.'yyyy-MM-dd'.backup'</code>, by <b>MaxFileSize</b>, or by both. The thread which
+ * hits the trigger writes out the buffer of the old handle, moves the file to its backup
+ * name and swaps in a handle on a new file. Closing the old handle, the optional
+ * <b>Compression</b> (<code>GZIP</code>) and the retention of at most
+ * <b>MaxBackupFiles</b> backups taking at most <b>MaxTotalSize</b> bytes run on a
+ * background thread. {@link #close()} waits for it, and so does the JVM when it exits,
+ * a compressed backup is only given its <code>.gz</code> name once it is complete. A
+ * rollover which fails to rename the file is tried again a second later.
+ *
+ * <p>Backups are named like those of {@link DailyRollingFileAppender}; several backups
+ * of one period get an index before the <code>.backup</code> suffix. Without a date
+ * pattern the time of the rollover is used, like {@link StandaloneRollingFileAppender}.
+ * <b>RollOnStart</b> moves an existing file away when the destination starts, which
+ * is what <code>StandaloneRollingFileAppender</code> does.
+ *
+ * <p>Every <b>IndexInterval</b> bytes (default 64KB, 0 disables it) the time and the offset
+ * of the event being written are appended to the sidecar index <code>&lt;file&gt;.idx</code>,
+ * one <code>&lt;time in milliseconds&gt; &lt;offset&gt;</code> line per entry. The index is
+ * renamed and deleted with the file; the offsets of a compressed backup are those of the
+ * uncompressed data. <code>LogSearch</code> uses the index to seek to a time range.
+ */
+public class BackgroundRollingFileAppender extends ByteAppender implements FileDestination {
+
+	public static final String COMPRESSION_NONE = "NONE";
+	public static final String COMPRESSION_GZIP = "GZIP";
+
+	private static final String BACKUP_SUFFIX = ".backup";
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String STANDALONE_DATE_PATTERN = "'.'yyyy-MM-dd-HH-mm-ss'" + BACKUP_SUFFIX + "'";
+
+	public static final String INDEX_SUFFIX = ".idx";
+	public static final long DEFAULT_INDEX_INTERVAL = 64 * 1024;
+
+	/** Milliseconds before a failed rollover is tried again. */
+	private static final long ROLLOVER_RETRY = 1000;
+	/** Milliseconds the exiting JVM waits for the housekeeping. */
+	private static final long EXIT_WAIT = 60000;
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	private static final ExecutorService HOUSEKEEPER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "BackgroundRollingFileAppender-housekeeping");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				HOUSEKEEPER.shutdown();
+				try {
+					HOUSEKEEPER.awaitTermination(EXIT_WAIT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "BackgroundRollingFileAppender-housekeepingExit"));
+	}
+
+	/** An open file with its write buffer and its index. */
+	private static final class Handle {
+		final FileChannel channel;
+		final ByteBuffer buffer;
+		FileChannel index;
+		long size;
+		long nextIndex;
+		Handle(FileChannel channel, FileChannel index, int bufferSize) throws IOException {
+			this.channel = channel;
+			this.index = index;
+			this.buffer = ByteBuffer.allocateDirect(bufferSize);
+			this.size = channel.size();
+			this.nextIndex = size;
+		}
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+		/** Add an index entry for the event written at the current size, the file is still written when the index fails. */
+		void index(long time, long interval) {
+			nextIndex = size + interval;
+			try {
+				ByteBuffer entry = ByteBuffer.wrap((time + " " + size + "\n").getBytes("ISO-8859-1"));
+				while (entry.hasRemaining()) {
+					index.write(entry);
+				}
+			} catch (IOException e) {
+				LogLog.error("Failed to write the index, it is no longer written until the next rollover.", e);
+				closeIndex();
+			}
+		}
+		void close() throws IOException {
+			flush();
+			channel.close();
+			closeIndex();
+		}
+		private void closeIndex() {
+			if (index != null) {
+				try {
+					index.close();
+				} catch (IOException e) {
+					LogLog.warn("Could not close the index.", e);
+				}
+				index = null;
+			}
+		}
+	}
+
+	private String fileName;
+	private boolean fileAppend = true;
+	private String datePattern;
+	private long maxFileSize = 0;
+	private String compression = COMPRESSION_NONE;
+	private int maxBackupFiles = 0;
+	private long maxTotalSize = 0;
+	private boolean rollOnStart = false;
+	private boolean immediateFlush = true;
+	private int bufferSize = 8 * 1024;
+	private long indexInterval = DEFAULT_INDEX_INTERVAL;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private Handle current;
+	private RollingPeriod rollingPeriod;
+	private RollingPeriod backupNaming;
+	private long periodTime;
+	private long nextRollover = Long.MAX_VALUE;
+	/** No size triggered rollover before this time, after one failed. */
+	private long sizeRetry;
+	/** The last housekeeping of this destination, the earlier ones are done before it. */
+	private volatile Future housekeeping;
+
+	public void activateOptions() {
+		if (fileName == null) {
+			LogLog.error("File option not set for appender [" + name + "].");
+			return;
+		}
+		long now = System.currentTimeMillis();
+		File f = new File(fileName);
+		if (datePattern != null) {
+			rollingPeriod = new RollingPeriod(datePattern);
+			backupNaming = rollingPeriod;
+			periodTime = f.exists() ? f.lastModified() : now;
+			nextRollover = rollingPeriod.nextBoundary(now);
+		} else {
+			backupNaming = new RollingPeriod(STANDALONE_DATE_PATTERN);
+			periodTime = now;
+		}
+		try {
+			if (f.getParentFile() != null) {
+				f.getParentFile().mkdirs();
+			}
+			if (rollOnStart && f.length() > 0) {
+				File backup = new File(backupName(now));
+				if (f.renameTo(backup)) {
+					LogLog.debug(fileName + " -> " + backup);
+					renameIndex(backup);
+					scheduleHousekeeping(null, backup);
+				}
+			}
+			current = open(fileAppend);
+		} catch (IOException e) {
+			errorHandler.error("Cannot open file [" + fileName + "].", e, 0);
+		}
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		write(event, bytes, metrics, errorHandler);
+	}
+
+	/**
+	 * Write on behalf of <code>destination</code>, which gets the flushes and rollovers in its
+	 * <code>metrics</code> and the errors in its <code>errorHandler</code>, see {@link SharedFileAppender}.
+	 * Returns <code>false</code> when this destination is closed and nothing was written.
+	 */
+	boolean write(LoggingEvent event, ByteBuilder bytes, DestinationMetrics metrics, ErrorHandler errorHandler) {
+		lock.lock();
+		try {
+			if (closed) {
+				return false;
+			}
+			if (current == null) {
+				return true;
+			}
+			int len = bytes.length();
+			long now = System.currentTimeMillis();
+			if (now >= nextRollover) {
+				//until the rollover succeeds, so one backup holds one period
+				nextRollover = now + ROLLOVER_RETRY;
+				if (rollOver(periodTime, now, metrics)) {
+					nextRollover = rollingPeriod.nextBoundary(now);
+				}
+			} else if (maxFileSize > 0 && current.size > 0 && current.size + len > maxFileSize && now >= sizeRetry) {
+				sizeRetry = now + ROLLOVER_RETRY;
+				if (rollOver(now, now, metrics)) {
+					sizeRetry = 0;
+				}
+			}
+			Handle h = current;
+			if (h.index != null && h.size >= h.nextIndex) {
+				h.index(event.timeStamp, indexInterval);
+			}
+			if (len > h.buffer.remaining()) {
+				h.flush();
+				metrics.recordFlush();
+				if (len > h.buffer.capacity()) {
+					ByteBuffer b = ByteBuffer.wrap(bytes.array(), 0, len);
+					while (b.hasRemaining()) {
+						h.channel.write(b);
+					}
+					h.size += len;
+					return true;
+				}
+			}
+			h.buffer.put(bytes.array(), 0, len);
+			h.size += len;
+			if (immediateFlush) {
+				h.flush();
+				metrics.recordFlush();
+			}
+		} catch (IOException e) {
+			errorHandler.error("Failed to write to [" + fileName + "].", e, 0);
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Write out the buffer, move the file to the backup name of <code>backupTime</code> and
+	 * swap in a new handle. Everything else is left to the housekeeping thread. Returns
+	 * <code>false</code> when the file could not be renamed, it is then still written.
+	 */
+	private boolean rollOver(long backupTime, long now, DestinationMetrics metrics) throws IOException {
+		long start = System.nanoTime();
+		Handle old = current;
+		//the old handle is only closed in the background, its events must not wait for it
+		old.flush();
+		metrics.recordFlush();
+		File target = new File(backupName(backupTime));
+		File file = new File(fileName);
+		if (!file.renameTo(target)) {
+			LogLog.error("Failed to rename [" + fileName + "] to [" + target + "].");
+			return false;
+		}
+		periodTime = now;
+		LogLog.debug(fileName + " -> " + target);
+		renameIndex(target);
+		try {
+			current = open(true);
+		} catch (IOException e) {
+			//keep writing to the renamed file rather than losing events
+			current = old;
+			throw e;
+		}
+		scheduleHousekeeping(old, target);
+		metrics.recordRollover(System.nanoTime() - start);
+		return true;
+	}
+
+	private Handle open(boolean append) throws IOException {
+		FileChannel channel = open(new File(fileName), append);
+		FileChannel index = null;
+		if (indexInterval > 0) {
+			try {
+				index = open(new File(fileName + INDEX_SUFFIX), append);
+			} catch (IOException e) {
+				LogLog.error("Cannot open the index of [" + fileName + "].", e);
+			}
+		}
+		return new Handle(channel, index, bufferSize);
+	}
+
+	private static FileChannel open(File f, boolean append) throws IOException {
+		if (append) {
+			return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/** Move the index of the file along with it to the backup. */
+	private void renameIndex(File backup) {
+		File index = new File(fileName + INDEX_SUFFIX);
+		if (index.exists() && !index.renameTo(new File(backup.getPath() + INDEX_SUFFIX))) {
+			LogLog.warn("Failed to rename [" + index + "] to [" + backup + INDEX_SUFFIX + "].");
+		}
+	}
+
+	/** The backup name for <code>time</code>, with an index when a backup of that name exists. */
+	private String backupName(long time) {
+		String dated = fileName + backupNaming.format(time);
+		String candidate = dated;
+		for (int i = 1; new File(candidate).exists() || new File(candidate + GZIP_SUFFIX).exists(); i++) {
+			if (dated.endsWith(BACKUP_SUFFIX)) {
+				candidate = dated.substring(0, dated.length() - BACKUP_SUFFIX.length()) + "." + i + BACKUP_SUFFIX;
+			} else {
+				candidate = dated + "." + i;
+			}
+		}
+		return candidate;
+	}
+
+	/** Close the old handle, compress the backup and apply the retention on the housekeeping thread, or now when the JVM is exiting. */
+	private void scheduleHousekeeping(final Handle old, final File backup) {
+		Runnable task = new Runnable() {
+			public void run() {
+				if (old != null) {
+					try {
+						old.close();
+					} catch (IOException e) {
+						LogLog.error("Could not close [" + backup + "].", e);
+					}
+				}
+				if (COMPRESSION_GZIP.equals(compression)) {
+					compress(backup);
+				}
+				applyRetention();
+			}
+		};
+		try {
+			housekeeping = HOUSEKEEPER.submit(task);
+		} catch (RejectedExecutionException e) {
+			FutureTask now = new FutureTask(task, null);
+			now.run();
+			housekeeping = now;
+		}
+	}
+
+	/** Compress the backup under a temporary name, renamed once complete, so an interrupted compression leaves no truncated <code>.gz</code>. */
+	private void compress(File backup) {
+		File target = new File(backup.getPath() + GZIP_SUFFIX);
+		File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new FileInputStream(backup);
+			out = new GZIPOutputStream(new FileOutputStream(partial), 64 * 1024);
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			out.close();
+			out = null;
+			in.close();
+			in = null;
+			partial.setLastModified(backup.lastModified());
+			if (!partial.renameTo(target)) {
+				throw new IOException("Failed to rename [" + partial + "] to [" + target + "].");
+			}
+			if (!backup.delete()) {
+				LogLog.warn("Could not delete [" + backup + "] after compression.");
+			}
+		} catch (IOException e) {
+			LogLog.error("Could not compress [" + backup + "].", e);
+			partial.delete();
+		} finally {
+			try {
+				if (in != null) in.close();
+				if (out != null) out.close();
+			} catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+	/** Delete the oldest backups beyond <b>MaxBackupFiles</b> or <b>MaxTotalSize</b>. */
+	private void applyRetention() {
+		if (maxBackupFiles <= 0 && maxTotalSize <= 0) {
+			return;
+		}
+		File file = new File(fileName).getAbsoluteFile();
+		final String prefix = file.getName() + ".";
+		File[] backups = file.getParentFile().listFiles(new java.io.FileFilter() {
+			public boolean accept(File f) {
+				String n = f.getName();
+				return f.isFile() && n.startsWith(prefix)
+						&& (n.endsWith(BACKUP_SUFFIX) || n.endsWith(BACKUP_SUFFIX + GZIP_SUFFIX));
+			}
+		});
+		if (backups == null) {
+			return;
+		}
+		Arrays.sort(backups, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				File f1 = (File) o1;
+				File f2 = (File) o2;
+				long t1 = f1.lastModified();
+				long t2 = f2.lastModified();
+				if (t1 != t2) {
+					return t1 > t2 ? -1 : 1;
+				}
+				//same second, a longer name has the higher index
+				int l1 = f1.getName().length();
+				int l2 = f2.getName().length();
+				return l1 != l2 ? l2 - l1 : f2.getName().compareTo(f1.getName());
+			}
+		});
+		long total = 0;
+		for (int i = 0; i < backups.length; i++) {
+			total += backups[i].length();
+			if ((maxBackupFiles > 0 && i >= maxBackupFiles) || (maxTotalSize > 0 && total > maxTotalSize)) {
+				if (backups[i].delete()) {
+					LogLog.debug("Deleted backup [" + backups[i] + "].");
+				}
+				String name = backups[i].getPath();
+				if (name.endsWith(GZIP_SUFFIX)) {
+					name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+				}
+				new File(name + INDEX_SUFFIX).delete();
+			}
+		}
+	}
+
+	public void writeHeaderIfEmpty(String header) throws IOException {
+		lock.lock();
+		try {
+			if (current != null && current.size == 0) {
+				ByteBuilder b = new ByteBuilder();
+				b.setCharset(getCharset());
+				b.appendText(header).appendText(Layout.LINE_SEP);
+				current.buffer.put(b.array(), 0, b.length());
+				current.size += b.length();
+				current.flush();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Close the file and wait for the housekeeping of its backups. */
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (current != null) {
+				current.close();
+			}
+		} catch (IOException e) {
+			LogLog.error("Could not close [" + fileName + "].", e);
+		} finally {
+			lock.unlock();
+		}
+		Future f = housekeeping;
+		if (f != null) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				LogLog.error("Housekeeping of [" + fileName + "] failed.", e.getCause());
+			}
+		}
+	}
+
+	public void setFile(String file) {
+		this.fileName = file.trim();
+	}
+	public String getFile() {
+		return fileName;
+	}
+	public void setAppend(boolean append) {
+		this.fileAppend = append;
+	}
+	public boolean getAppend() {
+		return fileAppend;
+	}
+	/** Date pattern of the time based rollover, see {@link DailyRollingFileAppender#setDatePattern(String)}. */
+	public void setDatePattern(String datePattern) {
+		this.datePattern = datePattern;
+	}
+	public String getDatePattern() {
+		return datePattern;
+	}
+	/** Size which triggers a rollover, e.g. <code>100MB</code>. 0 disables the size trigger. */
+	public void setMaxFileSize(String value) {
+		this.maxFileSize = OptionConverter.toFileSize(value, 0);
+	}
+	public long getMaximumFileSize() {
+		return maxFileSize;
+	}
+	/** <code>NONE</code> or <code>GZIP</code>. */
+	public void setCompression(String compression) {
+		String c = compression == null ? "" : compression.trim().toUpperCase();
+		if (COMPRESSION_GZIP.equals(c) || COMPRESSION_NONE.equals(c)) {
+			this.compression = c;
+		} else {
+			LogLog.warn("Unsupported compression [" + compression + "] for " + name + ", using " + COMPRESSION_NONE + ".");
+			this.compression = COMPRESSION_NONE;
+		}
+	}
+	public String getCompression() {
+		return compression;
+	}
+	/** Number of backups to keep, 0 keeps all. */
+	public void setMaxBackupFiles(int maxBackupFiles) {
+		this.maxBackupFiles = maxBackupFiles;
+	}
+	public int getMaxBackupFiles() {
+		return maxBackupFiles;
+	}
+	/** Total size of the backups to keep, e.g. <code>1GB</code>. 0 keeps all. */
+	public void setMaxTotalSize(String value) {
+		this.maxTotalSize = OptionConverter.toFileSize(value, 0);
+	}
+	public long getMaximumTotalSize() {
+		return maxTotalSize;
+	}
+	/** Move an existing non-empty file to a backup when the destination starts. */
+	public void setRollOnStart(boolean rollOnStart) {
+		this.rollOnStart = rollOnStart;
+	}
+	public boolean getRollOnStart() {
+		return rollOnStart;
+	}
+	/** Write each event to the file immediately, otherwise only when the buffer is full. */
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+	public boolean getImmediateFlush() {
+		return immediateFlush;
+	}
+	/** Size in bytes of the write buffer. */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(1024, bufferSize);
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	/** Bytes written between two entries of the index, e.g. <code>64KB</code>. 0 disables the index. */
+	public void setIndexInterval(String value) {
+		this.indexInterval = OptionConverter.toFileSize(value, DEFAULT_INDEX_INTERVAL);
+	}
+	public long getIndexIntervalSize() {
+		return indexInterval;
+	}
+}
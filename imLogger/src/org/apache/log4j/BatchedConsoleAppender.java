@@ -0,0 +1,171 @@
+package org.apache.log4j;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>BatchedConsoleAppender</code> writes to the standard output or error of the
+ * process without going through <code>System.out</code>.
+ *
+ * <p>The encoded events are collected in a buffer of <b>BufferSize</b> bytes (default
+ * 64KB) outside the heap and written to file descriptor 1 or 2 with one call when the
+ * buffer is full, every <b>FlushInterval</b> milliseconds (default 200) and when the
+ * destination is closed or the JVM exits. So the logging threads neither wait on the
+ * lock of the <code>System.out</code> stream nor on a system call per event. <b>Target</b>
+ * is <code>System.out</code> (default) or <code>System.err</code>.
+ *
+ * <p>Text printed through <code>System.out</code> meanwhile is not ordered with the
+ * events of a batch. Closing the destination does not close the standard output.
+ */
+public class BatchedConsoleAppender extends ByteAppender {
+
+	private String target = ConsoleAppender.SYSTEM_OUT;
+	private int bufferSize = 64 * 1024;
+	private long flushInterval = 200;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private Thread flusher;
+	private Thread shutdownHook;
+
+	public void activateOptions() {
+		FileDescriptor fd = ConsoleAppender.SYSTEM_ERR.equals(target) ? FileDescriptor.err : FileDescriptor.out;
+		//the stream is never closed, which would close the descriptor of the process
+		channel = new FileOutputStream(fd).getChannel();
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		if (flushInterval > 0) {
+			flusher = new Thread(new Runnable() {
+				public void run() {
+					while (!closed) {
+						LockSupport.parkNanos(flushInterval * 1000000L);
+						flush();
+					}
+				}
+			}, "BatchedConsoleAppender-" + name);
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+		shutdownHook = new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "BatchedConsoleAppender-" + name + "-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		lock.lock();
+		try {
+			if (closed || buffer == null) {
+				return;
+			}
+			int len = bytes.length();
+			if (len > buffer.remaining()) {
+				flushBuffer();
+				if (len > buffer.capacity()) {
+					writeFully(ByteBuffer.wrap(bytes.array(), 0, len));
+					return;
+				}
+			}
+			buffer.put(bytes.array(), 0, len);
+		} catch (IOException e) {
+			errorHandler.error("Failed to write to " + target + ".", e, 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Write the buffered events. */
+	public void flush() {
+		lock.lock();
+		try {
+			if (buffer != null && buffer.position() > 0) {
+				flushBuffer();
+			}
+		} catch (IOException e) {
+			errorHandler.error("Failed to write to " + target + ".", e, 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+		metrics.recordFlush();
+	}
+
+	private void writeFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (buffer != null && buffer.position() > 0) {
+				flushBuffer();
+			}
+			closed = true;
+		} catch (IOException e) {
+			LogLog.error("Could not flush " + target + ".", e);
+			closed = true;
+		} finally {
+			lock.unlock();
+		}
+		if (flusher != null) {
+			LockSupport.unpark(flusher);
+		}
+		if (shutdownHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				//the JVM is exiting, the hook flushes nothing more
+			}
+		}
+	}
+
+	/** <code>System.out</code> or <code>System.err</code>. */
+	public void setTarget(String value) {
+		String v = value.trim();
+		if (ConsoleAppender.SYSTEM_ERR.equalsIgnoreCase(v)) {
+			target = ConsoleAppender.SYSTEM_ERR;
+		} else {
+			if (!ConsoleAppender.SYSTEM_OUT.equalsIgnoreCase(v)) {
+				LogLog.warn("[" + value + "] should be System.out or System.err, using System.out.");
+			}
+			target = ConsoleAppender.SYSTEM_OUT;
+		}
+	}
+	public String getTarget() {
+		return target;
+	}
+	/** Size in bytes of the buffer, which is written when it is full. */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(1024, bufferSize);
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	/** Milliseconds between two writes of the buffered events, 0 to write them only when the buffer is full. */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+}
@@ -0,0 +1,415 @@
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>BinaryLogAppender</code> writes events in a compact binary form instead of
+ * formatting them. Every distinct message pattern, thread name, logger name and, with
+ * <b>LocationInfo</b>, caller location is written once to a dictionary in the file;
+ * an event is written as the ids of its entries, the timestamp, the level and its raw
+ * arguments. The files are rendered back to text or CSV by
+ * <code>com.imagsky.utility.BinaryLogReader</code>.
+ *
+ * <p>The pattern of a {@link MessageTemplate}, e.g. a message of the parameterized
+ * printing methods, is stored with its arguments. Other message objects are stored
+ * under their class name with the rendered message as the only argument.
+ *
+ * <p>The file is a sequence of records, each starting with its type:
+ * <ul>
+ * <li><code>SEGMENT</code>: magic <code>IMLB</code>, version byte, varint base time. Starts a file
+ * and every reopening of it, the dictionary starts again.</li>
+ * <li><code>TEMPLATE</code>: varint id, kind byte, string.</li>
+ * <li><code>THREAD</code>, <code>LOGGER</code>: varint id, string.</li>
+ * <li><code>LOCATION</code>: varint id, string in the form of <code>LocationInfo.fullInfo</code>.</li>
+ * <li><code>EVENT</code>: varint template, varint milliseconds since the base time, varint level,
+ * varint thread, varint logger, varint location (0 for none), varint argument count,
+ * the arguments, varint number of stack trace lines, the lines.</li>
+ * </ul>
+ * An argument is its type followed by a string, a zigzag varint for the integer types,
+ * or the varint of the bits of a float or double; arrays and other objects are stored
+ * as their text. Strings are a varint byte length followed by UTF-8; varints are
+ * unsigned LEB128. Dictionary ids start at 1.
+ *
+ * <p>A destination replacing one of the same file on a reload takes over its open file
+ * and dictionary, so the segment goes on, and the events still written to the replaced
+ * destination are passed on.
+ */
+public class BinaryLogAppender extends ByteAppender implements FileDestination, ReplacingDestination {
+
+	public static final byte[] MAGIC = {'I', 'M', 'L', 'B'};
+	public static final int VERSION = 1;
+
+	public static final int RECORD_SEGMENT = 0;
+	public static final int RECORD_TEMPLATE = 1;
+	public static final int RECORD_THREAD = 2;
+	public static final int RECORD_LOGGER = 3;
+	public static final int RECORD_LOCATION = 4;
+	public static final int RECORD_EVENT = 5;
+
+	/** Template kinds */
+	public static final int TEMPLATE_PATTERN = 0;
+	public static final int TEMPLATE_OBJECT = 1;
+
+	/** Argument types */
+	public static final int ARG_NULL = 0;
+	public static final int ARG_STRING = 1;
+	public static final int ARG_INT = 2;
+	public static final int ARG_LONG = 3;
+	public static final int ARG_FLOAT = 4;
+	public static final int ARG_DOUBLE = 5;
+	public static final int ARG_TRUE = 6;
+	public static final int ARG_FALSE = 7;
+
+	private static final int TEMPLATE = 0;
+	private static final int THREAD = 1;
+	private static final int LOGGER = 2;
+	private static final int LOCATION = 3;
+	/** Dictionary map of the object templates, which share the ids of the pattern templates */
+	private static final int OBJECT_TEMPLATE = 4;
+
+	/** A dictionary entry, <code>written</code> is guarded by the write lock. */
+	private static final class Entry {
+		final int id;
+		final byte[] definition;
+		boolean written;
+		Entry(int id, byte[] definition) {
+			this.id = id;
+			this.definition = definition;
+		}
+	}
+
+	/** The dictionary of the current segment. */
+	private static final class Dictionary {
+		final ConcurrentHashMap[] maps = new ConcurrentHashMap[] {
+				new ConcurrentHashMap(), new ConcurrentHashMap(), new ConcurrentHashMap(), new ConcurrentHashMap(), new ConcurrentHashMap()};
+		final AtomicInteger[] ids = new AtomicInteger[] {
+				new AtomicInteger(), new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+		final long baseTime;
+		Dictionary(long baseTime) {
+			this.baseTime = baseTime;
+		}
+	}
+
+	/** The entries used by the event being encoded on this thread. */
+	private static final ThreadLocal ENTRIES = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Entry[4];
+		}
+	};
+
+	private String fileName;
+	private boolean fileAppend = true;
+	private boolean locationInfo = false;
+	private boolean immediateFlush = true;
+	private int bufferSize = 64 * 1024;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private volatile Dictionary dictionary;
+
+	/** The destination replaced on a reload, until the options are activated. */
+	private BinaryLogAppender previous;
+	/** The destination which took over the file, guarded by the lock. */
+	private BinaryLogAppender successor;
+
+	public void activateOptions() {
+		if (fileName == null) {
+			LogLog.error("File option not set for appender [" + name + "].");
+			return;
+		}
+		BinaryLogAppender p = previous;
+		previous = null;
+		if (p != null && p.handOver(this)) {
+			LogLog.debug("[" + name + "] took over the open file [" + fileName + "].");
+			return;
+		}
+		try {
+			File f = new File(fileName);
+			if (f.getParentFile() != null) {
+				f.getParentFile().mkdirs();
+			}
+			if (fileAppend) {
+				channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			} else {
+				channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			}
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			Dictionary d = new Dictionary(System.currentTimeMillis());
+			ByteBuilder b = new ByteBuilder(16);
+			b.append((byte) RECORD_SEGMENT).append(MAGIC).append((byte) VERSION).appendVarint(d.baseTime);
+			put(b.array(), 0, b.length());
+			flush();
+			dictionary = d;
+		} catch (IOException e) {
+			errorHandler.error("Cannot open file [" + fileName + "].", e, 0);
+		}
+	}
+
+	/** Encode the event without its dictionary entries, which are written by {@link #write(LoggingEvent, ByteBuilder)}. */
+	protected void encode(LoggingEvent event, ByteBuilder out) {
+		Dictionary d = dictionary;
+		if (d == null) {
+			return;
+		}
+		Entry[] entries = (Entry[]) ENTRIES.get();
+		Object message = event.getMessage();
+		MessageTemplate template = message instanceof MessageTemplate ? (MessageTemplate) message : null;
+		if (template != null) {
+			entries[TEMPLATE] = entry(d, TEMPLATE, template.getPattern());
+		} else {
+			entries[TEMPLATE] = entry(d, OBJECT_TEMPLATE, message == null ? "null" : message.getClass().getName());
+		}
+		entries[THREAD] = entry(d, THREAD, event.getThreadName());
+		entries[LOGGER] = entry(d, LOGGER, event.getLoggerName());
+		entries[LOCATION] = locationInfo ? entry(d, LOCATION, event.getLocationInformation().fullInfo) : null;
+
+		out.append((byte) RECORD_EVENT);
+		out.appendVarint(entries[TEMPLATE].id);
+		out.appendVarint(zigzag(event.timeStamp - d.baseTime));
+		out.appendVarint(event.getLevel().toInt());
+		out.appendVarint(entries[THREAD].id);
+		out.appendVarint(entries[LOGGER].id);
+		out.appendVarint(entries[LOCATION] == null ? 0 : entries[LOCATION].id);
+		if (template != null) {
+			Object[] args = template.getArguments();
+			int count = Math.min(template.getArgumentCount(), args == null ? 0 : args.length);
+			out.appendVarint(count);
+			for (int i = 0; i < count; i++) {
+				appendArgument(out, args[i]);
+			}
+		} else {
+			out.appendVarint(1);
+			appendArgument(out, event.getRenderedMessage());
+		}
+		String[] s = event.getThrowableStrRep();
+		int lines = s == null ? 0 : s.length;
+		out.appendVarint(lines);
+		for (int i = 0; i < lines; i++) {
+			out.appendUtf8WithLength(s[i]);
+		}
+	}
+
+	/** The entry of <code>key</code> in the dictionary map <code>type</code>, created on first use. */
+	private static Entry entry(Dictionary d, int type, String key) {
+		if (key == null) {
+			key = "";
+		}
+		Entry e = (Entry) d.maps[type].get(key);
+		if (e != null) {
+			return e;
+		}
+		synchronized (d.maps[type]) {
+			e = (Entry) d.maps[type].get(key);
+			if (e == null) {
+				boolean isTemplate = type == TEMPLATE || type == OBJECT_TEMPLATE;
+				int id = d.ids[isTemplate ? TEMPLATE : type].incrementAndGet();
+				ByteBuilder b = new ByteBuilder(key.length() + 8);
+				b.append((byte) (isTemplate ? RECORD_TEMPLATE : RECORD_TEMPLATE + type)).appendVarint(id);
+				if (isTemplate) {
+					b.append((byte) (type == TEMPLATE ? TEMPLATE_PATTERN : TEMPLATE_OBJECT));
+				}
+				b.appendUtf8WithLength(key);
+				e = new Entry(id, b.toByteArray());
+				d.maps[type].put(key, e);
+			}
+		}
+		return e;
+	}
+
+	private static void appendArgument(ByteBuilder out, Object arg) {
+		if (arg == null) {
+			out.append((byte) ARG_NULL);
+		} else if (arg instanceof String) {
+			out.append((byte) ARG_STRING).appendUtf8WithLength((String) arg);
+		} else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+			out.append((byte) ARG_INT).appendVarint(zigzag(((Number) arg).intValue()));
+		} else if (arg instanceof Long) {
+			out.append((byte) ARG_LONG).appendVarint(zigzag(((Long) arg).longValue()));
+		} else if (arg instanceof Float) {
+			out.append((byte) ARG_FLOAT).appendVarint(Float.floatToIntBits(((Float) arg).floatValue()) & 0xffffffffL);
+		} else if (arg instanceof Double) {
+			out.append((byte) ARG_DOUBLE).appendVarint(Double.doubleToLongBits(((Double) arg).doubleValue()));
+		} else if (arg instanceof Boolean) {
+			out.append((byte) (((Boolean) arg).booleanValue() ? ARG_TRUE : ARG_FALSE));
+		} else {
+			out.append((byte) ARG_STRING).appendUtf8WithLength(argumentText(arg));
+		}
+	}
+
+	/** The text of an argument as the message formatter renders it, arrays included. */
+	private static String argumentText(Object arg) {
+		try {
+			if (arg.getClass().isArray()) {
+				String s = Arrays.deepToString(new Object[] {arg});
+				return s.substring(1, s.length() - 1);
+			}
+			return arg.toString();
+		} catch (RuntimeException e) {
+			return "[FAILED toString() of " + arg.getClass().getName() + "]";
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		if (bytes.length() == 0) {
+			return;
+		}
+		Entry[] entries = (Entry[]) ENTRIES.get();
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (successor != null) {
+				//same dictionary, the successor never takes the lock of the destination it replaced
+				successor.write(event, bytes);
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+			//a dictionary entry must precede the first event using it in the file
+			for (int i = 0; i < entries.length; i++) {
+				Entry e = entries[i];
+				if (e != null && !e.written) {
+					put(e.definition, 0, e.definition.length);
+					e.written = true;
+				}
+			}
+			put(bytes.array(), 0, bytes.length());
+			if (immediateFlush) {
+				flush();
+			}
+		} catch (IOException e) {
+			errorHandler.error("Failed to write to [" + fileName + "].", e, 0);
+		} finally {
+			lock.unlock();
+			Arrays.fill(entries, null);
+		}
+	}
+
+	/** Give the open file and its dictionary to the destination replacing this one, if it writes the same file. */
+	private boolean handOver(BinaryLogAppender next) {
+		lock.lock();
+		try {
+			if (closed || channel == null || !canonicalPath(fileName).equals(canonicalPath(next.fileName))) {
+				return false;
+			}
+			flush();
+			next.channel = channel;
+			next.buffer = ByteBuffer.allocateDirect(next.bufferSize);
+			next.dictionary = dictionary;
+			channel = null;
+			successor = next;
+			return true;
+		} catch (IOException e) {
+			errorHandler.error("Failed to write to [" + fileName + "].", e, 0);
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void put(byte[] b, int off, int len) throws IOException {
+		if (len > buffer.remaining()) {
+			flush();
+			if (len > buffer.capacity()) {
+				ByteBuffer wrapped = ByteBuffer.wrap(b, off, len);
+				while (wrapped.hasRemaining()) {
+					channel.write(wrapped);
+				}
+				return;
+			}
+		}
+		buffer.put(b, off, len);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		metrics.recordFlush();
+	}
+
+	/** A binary file has no header line. */
+	public void writeHeaderIfEmpty(String header) {
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (channel != null) {
+				flush();
+				channel.close();
+			}
+		} catch (IOException e) {
+			LogLog.error("Could not close [" + fileName + "].", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean requiresLayout() {
+		return false;
+	}
+
+	public void setFile(String file) {
+		this.fileName = file.trim();
+	}
+	public String getFile() {
+		return fileName;
+	}
+	public void setAppend(boolean append) {
+		this.fileAppend = append;
+	}
+	public boolean getAppend() {
+		return fileAppend;
+	}
+	/** Store the caller location of each event, required to render %C, %F, %L, %l or %M. */
+	public void setLocationInfo(boolean locationInfo) {
+		this.locationInfo = locationInfo;
+	}
+	public boolean getLocationInfo() {
+		return locationInfo;
+	}
+	/** Write each event to the file immediately, otherwise only when the buffer is full. */
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+	public boolean getImmediateFlush() {
+		return immediateFlush;
+	}
+	/** Size in bytes of the write buffer. */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(1024, bufferSize);
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	public void replaces(Appender previous) {
+		if (previous instanceof BinaryLogAppender) {
+			this.previous = (BinaryLogAppender) previous;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Base class of the destinations which write encoded bytes instead of going
+ * through a <code>Writer</code>.
+ *
+ * <p>The event is encoded into a per-thread {@link ByteBuilder}, directly when the
+ * layout is an {@link EncodedLayout} and from {@link Layout#format(LoggingEvent)}
+ * otherwise, and handed to {@link #write(LoggingEvent, ByteBuilder)}. The text is
+ * encoded with <b>Encoding</b>, the platform charset by default like
+ * <code>WriterAppender</code>.
+ *
+ * <p>{@link #doAppend(LoggingEvent)} does not synchronize on the appender, so
+ * subclasses must make <code>write</code> safe for concurrent callers and keep the
+ * serialized part as small as possible. They use <code>ReentrantLock</code> rather than
+ * <code>synchronized</code>, which would pin the carrier thread of a virtual thread.
+ *
+ * <p>The time taken by encoding and writing each event is recorded in the
+ * {@link DestinationMetrics} when they are enabled.
+ */
+public abstract class ByteAppender extends AppenderSkeleton implements MeteredAppender {
+
+	private static final ThreadLocal BUFFER = new ThreadLocal() {
+		protected Object initialValue() {
+			return new EncodeBuffer();
+		}
+	};
+
+	/** Serialize the plain layouts, which format into a shared buffer, striped by identity. */
+	private static final ReentrantLock[] LAYOUT_LOCKS = new ReentrantLock[16];
+	static {
+		for (int i = 0; i < LAYOUT_LOCKS.length; i++) {
+			LAYOUT_LOCKS[i] = new ReentrantLock();
+		}
+	}
+
+	private static final class EncodeBuffer {
+		final ByteBuilder bytes = new ByteBuilder(512);
+		boolean inUse;
+	}
+
+	private boolean closedWarned = false;
+	private Charset charset = Charset.defaultCharset();
+
+	protected final DestinationMetrics metrics = new DestinationMetrics();
+
+	/**
+	 * Same contract as {@link AppenderSkeleton#doAppend(LoggingEvent)} without the
+	 * appender lock.
+	 */
+	public void doAppend(LoggingEvent event) {
+		if (closed) {
+			if (!closedWarned) {
+				closedWarned = true;
+				LogLog.error("Attempted to append to closed appender named [" + name + "].");
+			}
+			return;
+		}
+		if (!isAsSevereAsThreshold(event.getLevel())) {
+			return;
+		}
+		Filter f = this.headFilter;
+		FILTER_LOOP:
+		while (f != null) {
+			switch (f.decide(event)) {
+				case Filter.DENY: return;
+				case Filter.ACCEPT: break FILTER_LOOP;
+				case Filter.NEUTRAL: f = f.getNext();
+			}
+		}
+		append(event);
+	}
+
+	protected void append(LoggingEvent event) {
+		if (layout == null && requiresLayout()) {
+			errorHandler.error("No layout set for the appender named [" + name + "].");
+			return;
+		}
+		EncodeBuffer buffer = (EncodeBuffer) BUFFER.get();
+		if (buffer.inUse) {
+			//re-entered from a destination on the same thread
+			buffer = new EncodeBuffer();
+		}
+		buffer.inUse = true;
+		try {
+			long start = DestinationMetrics.ENABLED ? System.nanoTime() : 0;
+			ByteBuilder bytes = buffer.bytes;
+			bytes.reset();
+			bytes.setCharset(charset);
+			encode(event, bytes);
+			write(event, bytes);
+			if (DestinationMetrics.ENABLED) {
+				metrics.recordAppend(bytes.length(), System.nanoTime() - start);
+			}
+		} finally {
+			buffer.inUse = false;
+		}
+	}
+
+	/** Encode the event with the layout, followed by the stack trace if the layout ignores it. */
+	protected void encode(LoggingEvent event, ByteBuilder out) {
+		if (layout instanceof EncodedLayout) {
+			((EncodedLayout) layout).encode(event, out);
+		} else {
+			//a plain layout formats into a shared buffer, it may also be shared with other destinations
+			String formatted;
+			ReentrantLock lock = LAYOUT_LOCKS[System.identityHashCode(layout) & (LAYOUT_LOCKS.length - 1)];
+			lock.lock();
+			try {
+				formatted = layout.format(event);
+			} finally {
+				lock.unlock();
+			}
+			out.appendText(formatted);
+		}
+		if (layout.ignoresThrowable()) {
+			String[] s = event.getThrowableStrRep();
+			if (s != null) {
+				for (int i = 0; i < s.length; i++) {
+					out.appendText(s[i]);
+					out.appendText(Layout.LINE_SEP);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the encoded event. <code>bytes</code> is only valid during the call,
+	 * implementations must copy what they keep.
+	 */
+	protected abstract void write(LoggingEvent event, ByteBuilder bytes);
+
+	/** Name of the charset of the text, an unknown one leaves the platform charset. */
+	public void setEncoding(String encoding) {
+		try {
+			this.charset = Charset.forName(encoding.trim());
+		} catch (IllegalArgumentException e) {
+			LogLog.warn("Unsupported encoding [" + encoding + "] for appender [" + name + "], using " + charset.name() + ".");
+		}
+	}
+	public String getEncoding() {
+		return charset.name();
+	}
+	/** The charset of the text, for what a destination encodes itself, e.g. a header. */
+	protected Charset getCharset() {
+		return charset;
+	}
+
+	public boolean requiresLayout() {
+		return true;
+	}
+
+	public DestinationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** The path identifying a file, whatever the path it is named with. */
+	static String canonicalPath(String fileName) {
+		File f = new File(fileName);
+		try {
+			return f.getCanonicalPath();
+		} catch (IOException e) {
+			return f.getAbsolutePath();
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package org.apache.log4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A growable byte array used by the byte oriented layouts and destinations.
+ *
+ * <p>Characters are encoded to UTF-8 directly into the array, so no intermediate
+ * <code>String</code> or <code>byte[]</code> is created. Malformed surrogates are
+ * written as <code>'?'</code>, the same as <code>String.getBytes("UTF-8")</code>.
+ * {@link #appendText(CharSequence)} encodes with the charset of the builder instead,
+ * UTF-8 taking the same direct path and other charsets a <code>CharsetEncoder</code>.
+ * Instances are not thread safe, they are meant to be reused by one thread.
+ */
+public final class ByteBuilder {
+
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+	private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+	private byte[] buf;
+	private int count;
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean utf8 = true;
+	private CharsetEncoder encoder;
+
+	public ByteBuilder() {
+		this(256);
+	}
+
+	public ByteBuilder(int capacity) {
+		this.buf = new byte[capacity];
+	}
+
+	public void reset() {
+		if (buf.length > MAX_RETAINED_CAPACITY) {
+			buf = new byte[MAX_RETAINED_CAPACITY];
+		}
+		count = 0;
+	}
+
+	/** The charset of {@link #appendText(CharSequence)}, UTF-8 until it is set. */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+		this.utf8 = StandardCharsets.UTF_8.equals(charset);
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public int length() {
+		return count;
+	}
+
+	/** The backing array, valid from 0 to {@link #length()}. */
+	public byte[] array() {
+		return buf;
+	}
+
+	public ByteBuilder append(byte b) {
+		ensureCapacity(count + 1);
+		buf[count++] = b;
+		return this;
+	}
+
+	public ByteBuilder append(byte[] b) {
+		return append(b, 0, b.length);
+	}
+
+	public ByteBuilder append(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+		return this;
+	}
+
+	/** Append the ASCII representation of <code>value</code>. */
+	public ByteBuilder append(long value) {
+		if (value == Long.MIN_VALUE) {
+			return appendUtf8("-9223372036854775808");
+		}
+		if (value < 0) {
+			append((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		ensureCapacity(count + digits);
+		int pos = count + digits;
+		do {
+			buf[--pos] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		count += digits;
+		return this;
+	}
+
+	public ByteBuilder appendUtf8(CharSequence s) {
+		return s == null ? appendUtf8("null") : appendUtf8(s, 0, s.length());
+	}
+
+	public ByteBuilder appendUtf8(CharSequence s, int start, int end) {
+		ensureCapacity(count + (end - start));
+		byte[] b = buf;
+		int pos = count;
+		int i = start;
+		//ASCII fast path
+		while (i < end) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			b[pos++] = (byte) c;
+			i++;
+		}
+		count = pos;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				ensureCapacity(count + 1);
+				buf[count++] = (byte) c;
+			} else if (c < 0x800) {
+				ensureCapacity(count + 2);
+				buf[count++] = (byte) (0xc0 | (c >> 6));
+				buf[count++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				ensureCapacity(count + 4);
+				buf[count++] = (byte) (0xf0 | (cp >> 18));
+				buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				buf[count++] = (byte) (0x80 | (cp & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				ensureCapacity(count + 1);
+				buf[count++] = (byte) '?';
+			} else {
+				ensureCapacity(count + 3);
+				buf[count++] = (byte) (0xe0 | (c >> 12));
+				buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buf[count++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Append <code>s</code> encoded with the charset of the builder. Characters the charset
+	 * cannot encode are replaced, the same as <code>String.getBytes(charset)</code>.
+	 */
+	public ByteBuilder appendText(CharSequence s) {
+		if (s == null) {
+			s = "null";
+		}
+		if (utf8) {
+			return appendUtf8(s, 0, s.length());
+		}
+		if (encoder == null || !encoder.charset().equals(charset)) {
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		//room for the worst case, so the encoder never overflows
+		ensureCapacity(count + (int) Math.ceil((s.length() + 1) * (double) encoder.maxBytesPerChar()));
+		ByteBuffer out = ByteBuffer.wrap(buf, count, buf.length - count);
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(s), out, true);
+		encoder.flush(out);
+		count = out.position();
+		return this;
+	}
+
+	/**
+	 * Append <code>s</code> as the content of a JSON string, without the quotes. Characters are
+	 * escaped and encoded to UTF-8 in the same pass.
+	 */
+	public ByteBuilder appendJson(CharSequence s) {
+		final int end = s.length();
+		ensureCapacity(count + end);
+		for (int i = 0; i < end; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c < 0x80) {
+				if (c == '"' || c == '\\') {
+					ensureCapacity(count + 2);
+					buf[count++] = '\\';
+				} else if (count == buf.length) {
+					ensureCapacity(count + 1);
+				}
+				buf[count++] = (byte) c;
+			} else if (c < 0x20) {
+				ensureCapacity(count + 6);
+				buf[count++] = '\\';
+				switch (c) {
+					case '\n': buf[count++] = 'n'; break;
+					case '\r': buf[count++] = 'r'; break;
+					case '\t': buf[count++] = 't'; break;
+					case '\b': buf[count++] = 'b'; break;
+					case '\f': buf[count++] = 'f'; break;
+					default:
+						buf[count++] = 'u';
+						buf[count++] = '0';
+						buf[count++] = '0';
+						buf[count++] = HEX[c >> 4];
+						buf[count++] = HEX[c & 0xf];
+				}
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				appendUtf8(s, i, i + 2);
+				i++;
+			} else {
+				appendUtf8(s, i, i + 1);
+			}
+		}
+		return this;
+	}
+
+	/** Append <code>value</code> as an unsigned LEB128 varint, 7 bits per byte. */
+	public ByteBuilder appendVarint(long value) {
+		ensureCapacity(count + 10);
+		while ((value & ~0x7fL) != 0) {
+			buf[count++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf[count++] = (byte) value;
+		return this;
+	}
+
+	/** Append the UTF-8 bytes of <code>s</code> preceded by their number as a varint. */
+	public ByteBuilder appendUtf8WithLength(CharSequence s) {
+		int start = count;
+		appendUtf8(s);
+		int len = count - start;
+		int prefix = 1;
+		for (int v = len >>> 7; v != 0; v >>>= 7) {
+			prefix++;
+		}
+		ensureCapacity(count + prefix);
+		System.arraycopy(buf, start, buf, start + prefix, len);
+		count = start;
+		appendVarint(len);
+		count += len;
+		return this;
+	}
+
+	/** Wrap the content in a <code>ByteBuffer</code> without copying. */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buf, 0, count);
+	}
+
+	public byte[] toByteArray() {
+		byte[] copy = new byte[count];
+		System.arraycopy(buf, 0, copy, 0, count);
+		return copy;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, count);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buf.length) {
+			int newCapacity = Math.max(buf.length << 1, capacity);
+			byte[] b = new byte[newCapacity];
+			System.arraycopy(buf, 0, b, 0, count);
+			buf = b;
+		}
+	}
+}
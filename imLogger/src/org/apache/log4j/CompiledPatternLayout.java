@@ -0,0 +1,581 @@
+package org.apache.log4j;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>CompiledPatternLayout</code> understands the same conversion patterns as
+ * {@link PatternLayout} and produces the same output, but is built for the hot
+ * destinations:
+ * <ul>
+ * <li>the pattern is compiled once into a fixed array of converters;</li>
+ * <li>events are formatted into a reusable per-thread <code>StringBuilder</code>,
+ * so the layout is safe to share between destinations and threads;</li>
+ * <li>{@link #encode(LoggingEvent, ByteBuilder)} writes the bytes, in the charset of
+ * the destination, straight into its buffer without building a <code>String</code>;</li>
+ * <li>the formatted date is cached per thread, only the milliseconds are
+ * rewritten within the same second.</li>
+ * </ul>
+ *
+ * <p>Select it in the configuration file with
+ * <code>&lt;layout type="COMPILED" pattern="..."/&gt;</code>.
+ */
+public class CompiledPatternLayout extends Layout implements EncodedLayout {
+
+	private static final int MAX_RETAINED_CAPACITY = 1024;
+	private static final String SPACES = "                                ";
+
+	private static final ThreadLocal BUFFER = new ThreadLocal() {
+		protected Object initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
+	private String pattern;
+	private Converter[] converters;
+
+	public CompiledPatternLayout() {
+		this(PatternLayout.DEFAULT_CONVERSION_PATTERN);
+	}
+
+	public CompiledPatternLayout(String pattern) {
+		setConversionPattern(pattern);
+	}
+
+	public void setConversionPattern(String conversionPattern) {
+		this.pattern = conversionPattern;
+		this.converters = new Parser(conversionPattern).parse();
+	}
+
+	public String getConversionPattern() {
+		return pattern;
+	}
+
+	public void activateOptions() {
+	}
+
+	public String format(LoggingEvent event) {
+		StringBuilder sb = buffer();
+		format(sb, event);
+		return sb.toString();
+	}
+
+	public void encode(LoggingEvent event, ByteBuilder out) {
+		StringBuilder sb = buffer();
+		format(sb, event);
+		out.appendText(sb);
+	}
+
+	/** Append the formatted event to <code>sb</code>. */
+	public void format(StringBuilder sb, LoggingEvent event) {
+		final Converter[] c = this.converters;
+		for (int i = 0; i < c.length; i++) {
+			c[i].format(sb, event);
+		}
+	}
+
+	public boolean ignoresThrowable() {
+		return true;
+	}
+
+	private static StringBuilder buffer() {
+		StringBuilder sb = (StringBuilder) BUFFER.get();
+		if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+			sb = new StringBuilder(256);
+			BUFFER.set(sb);
+		} else {
+			sb.setLength(0);
+		}
+		return sb;
+	}
+
+	/**
+	 * One compiled element of the pattern. Padding and truncation follow
+	 * <code>org.apache.log4j.helpers.PatternConverter</code>.
+	 */
+	static abstract class Converter {
+		int min = -1;
+		int max = Integer.MAX_VALUE;
+		boolean leftAlign = false;
+
+		abstract void convert(StringBuilder sb, LoggingEvent event);
+
+		void format(StringBuilder sb, LoggingEvent event) {
+			if (min < 0 && max == Integer.MAX_VALUE) {
+				convert(sb, event);
+				return;
+			}
+			int start = sb.length();
+			convert(sb, event);
+			int len = sb.length() - start;
+			if (len > max) {
+				sb.delete(start, start + len - max);
+			} else if (len < min) {
+				if (leftAlign) {
+					for (int i = len; i < min; i++) {
+						sb.append(' ');
+					}
+				} else {
+					for (int pad = min - len; pad > 0; pad -= SPACES.length()) {
+						sb.insert(start, SPACES, 0, Math.min(pad, SPACES.length()));
+					}
+				}
+			}
+		}
+	}
+
+	static final class LiteralConverter extends Converter {
+		private final String literal;
+		LiteralConverter(String literal) {
+			this.literal = literal;
+		}
+		void format(StringBuilder sb, LoggingEvent event) {
+			sb.append(literal);
+		}
+		void convert(StringBuilder sb, LoggingEvent event) {
+			sb.append(literal);
+		}
+	}
+
+	static final class MessageConverter extends Converter {
+		void convert(StringBuilder sb, LoggingEvent event) {
+			String s = event.getRenderedMessage();
+			if (s != null) {
+				sb.append(s);
+			}
+		}
+	}
+
+	static final class LevelConverter extends Converter {
+		void convert(StringBuilder sb, LoggingEvent event) {
+			sb.append(event.getLevel().toString());
+		}
+	}
+
+	static final class ThreadConverter extends Converter {
+		void convert(StringBuilder sb, LoggingEvent event) {
+			String s = event.getThreadName();
+			if (s != null) {
+				sb.append(s);
+			}
+		}
+	}
+
+	static final class RelativeTimeConverter extends Converter {
+		void convert(StringBuilder sb, LoggingEvent event) {
+			sb.append(event.timeStamp - LoggingEvent.getStartTime());
+		}
+	}
+
+	static final class NdcConverter extends Converter {
+		void convert(StringBuilder sb, LoggingEvent event) {
+			String s = event.getNDC();
+			if (s != null) {
+				sb.append(s);
+			}
+		}
+	}
+
+	static final class MdcConverter extends Converter {
+		private final String key;
+		MdcConverter(String key) {
+			this.key = key;
+		}
+		void convert(StringBuilder sb, LoggingEvent event) {
+			if (key == null) {
+				return;
+			}
+			Object val = event.getMDC(key);
+			if (val != null) {
+				sb.append(val.toString());
+			}
+		}
+	}
+
+	static final class LocationConverter extends Converter {
+		static final int FULL = 0;
+		static final int METHOD = 1;
+		static final int LINE = 2;
+		static final int FILE = 3;
+		private final int type;
+		LocationConverter(int type) {
+			this.type = type;
+		}
+		void convert(StringBuilder sb, LoggingEvent event) {
+			LocationInfo li = event.getLocationInformation();
+			String s = null;
+			switch (type) {
+				case FULL: s = li.fullInfo; break;
+				case METHOD: s = li.getMethodName(); break;
+				case LINE: s = li.getLineNumber(); break;
+				case FILE: s = li.getFileName(); break;
+			}
+			if (s != null) {
+				sb.append(s);
+			}
+		}
+	}
+
+	static final class NameConverter extends Converter {
+		private final boolean className;
+		private final int precision;
+		NameConverter(boolean className, int precision) {
+			this.className = className;
+			this.precision = precision;
+		}
+		void convert(StringBuilder sb, LoggingEvent event) {
+			String n = className ? event.getLocationInformation().getClassName() : event.getLoggerName();
+			if (n == null) {
+				return;
+			}
+			if (precision <= 0) {
+				sb.append(n);
+				return;
+			}
+			int len = n.length();
+			int end = len - 1;
+			for (int i = precision; i > 0; i--) {
+				end = n.lastIndexOf('.', end - 1);
+				if (end == -1) {
+					sb.append(n);
+					return;
+				}
+			}
+			sb.append(n, end + 1, len);
+		}
+	}
+
+	/**
+	 * Formats the event time with a <code>SimpleDateFormat</code> pattern. Each thread keeps
+	 * the text of the last second it formatted; when the pattern has a single <code>SSS</code>
+	 * field, a new millisecond within that second only rewrites the three digits.
+	 */
+	static final class DateConverter extends Converter {
+		private final String datePattern;
+		private final String prefixPattern;
+		private final String suffixPattern;
+		private final boolean subSecond;
+		private final ThreadLocal cache = new ThreadLocal();
+
+		DateConverter(String datePattern) {
+			this.datePattern = datePattern;
+			int millis = indexOfMillis(datePattern);
+			if (millis >= 0) {
+				this.prefixPattern = datePattern.substring(0, millis);
+				this.suffixPattern = datePattern.substring(millis + 3);
+			} else {
+				this.prefixPattern = null;
+				this.suffixPattern = null;
+			}
+			this.subSecond = millis >= 0 || hasUnquoted(datePattern, 'S');
+			//fail at compile time, like PatternLayout
+			new SimpleDateFormat(datePattern);
+		}
+
+		void convert(StringBuilder sb, LoggingEvent event) {
+			DateCache c = (DateCache) cache.get();
+			if (c == null) {
+				c = new DateCache();
+				cache.set(c);
+			}
+			final long time = event.timeStamp;
+			if (time != c.millis) {
+				long second = Math.floorDiv(time, 1000L);
+				if (prefixPattern != null) {
+					if (second != c.second) {
+						if (c.prefix == null) {
+							c.prefix = new SimpleDateFormat(prefixPattern);
+							c.suffix = new SimpleDateFormat(suffixPattern);
+						}
+						Date d = new Date(time);
+						c.prefixText = c.prefix.format(d);
+						c.suffixText = c.suffix.format(d);
+						c.second = second;
+					}
+					c.text.setLength(0);
+					int ms = (int) Math.floorMod(time, 1000L);
+					c.text.append(c.prefixText)
+						.append((char) ('0' + ms / 100))
+						.append((char) ('0' + (ms / 10) % 10))
+						.append((char) ('0' + ms % 10))
+						.append(c.suffixText);
+				} else if (subSecond || second != c.second) {
+					if (c.full == null) {
+						c.full = new SimpleDateFormat(datePattern);
+					}
+					c.text.setLength(0);
+					c.text.append(c.full.format(new Date(time)));
+					c.second = second;
+				}
+				c.millis = time;
+			}
+			sb.append(c.text);
+		}
+
+		/** Index of the only unquoted <code>SSS</code> field, or -1 when there is none or it is ambiguous. */
+		private static int indexOfMillis(String p) {
+			int found = -1;
+			boolean quoted = false;
+			for (int i = 0; i < p.length(); i++) {
+				char c = p.charAt(i);
+				if (c == '\'') {
+					quoted = !quoted;
+				} else if (!quoted && c == 'S') {
+					if (found >= 0 || i + 2 >= p.length() || p.charAt(i + 1) != 'S' || p.charAt(i + 2) != 'S'
+							|| (i + 3 < p.length() && p.charAt(i + 3) == 'S')) {
+						return -1;
+					}
+					found = i;
+					i += 2;
+				}
+			}
+			return quoted ? -1 : found;
+		}
+
+		private static boolean hasUnquoted(String p, char letter) {
+			boolean quoted = false;
+			for (int i = 0; i < p.length(); i++) {
+				char c = p.charAt(i);
+				if (c == '\'') {
+					quoted = !quoted;
+				} else if (!quoted && c == letter) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static final class DateCache {
+		long millis = Long.MIN_VALUE;
+		long second = Long.MIN_VALUE;
+		SimpleDateFormat prefix;
+		SimpleDateFormat suffix;
+		SimpleDateFormat full;
+		String prefixText;
+		String suffixText;
+		final StringBuilder text = new StringBuilder(32);
+	}
+
+	/**
+	 * Compiles a conversion pattern. The states and the error handling are the
+	 * same as <code>org.apache.log4j.helpers.PatternParser</code>.
+	 */
+	static final class Parser {
+		private static final int LITERAL_STATE = 0;
+		private static final int CONVERTER_STATE = 1;
+		private static final int MIN_STATE = 2;
+		private static final int DOT_STATE = 3;
+		private static final int MAX_STATE = 4;
+
+		private final String pattern;
+		private final int patternLength;
+		private final StringBuilder currentLiteral = new StringBuilder(32);
+		private final List list = new ArrayList();
+		private int i;
+		private int state = LITERAL_STATE;
+		private int min;
+		private int max;
+		private boolean leftAlign;
+
+		Parser(String pattern) {
+			this.pattern = pattern == null ? "" : pattern;
+			this.patternLength = this.pattern.length();
+			resetFormat();
+		}
+
+		Converter[] parse() {
+			char c;
+			i = 0;
+			while (i < patternLength) {
+				c = pattern.charAt(i++);
+				switch (state) {
+					case LITERAL_STATE:
+						if (i == patternLength) {
+							currentLiteral.append(c);
+							continue;
+						}
+						if (c == '%') {
+							switch (pattern.charAt(i)) {
+								case '%':
+									currentLiteral.append(c);
+									i++;
+									break;
+								case 'n':
+									currentLiteral.append(Layout.LINE_SEP);
+									i++;
+									break;
+								default:
+									addLiteral();
+									currentLiteral.append(c);
+									state = CONVERTER_STATE;
+									resetFormat();
+							}
+						} else {
+							currentLiteral.append(c);
+						}
+						break;
+					case CONVERTER_STATE:
+						currentLiteral.append(c);
+						switch (c) {
+							case '-':
+								leftAlign = true;
+								break;
+							case '.':
+								state = DOT_STATE;
+								break;
+							default:
+								if (c >= '0' && c <= '9') {
+									min = c - '0';
+									state = MIN_STATE;
+								} else {
+									finalizeConverter(c);
+								}
+						}
+						break;
+					case MIN_STATE:
+						currentLiteral.append(c);
+						if (c >= '0' && c <= '9') {
+							min = min * 10 + (c - '0');
+						} else if (c == '.') {
+							state = DOT_STATE;
+						} else {
+							finalizeConverter(c);
+						}
+						break;
+					case DOT_STATE:
+						currentLiteral.append(c);
+						if (c >= '0' && c <= '9') {
+							max = c - '0';
+							state = MAX_STATE;
+						} else {
+							LogLog.error("Error occured in position " + i
+									+ ".\n Was expecting digit, instead got char \"" + c + "\".");
+							state = LITERAL_STATE;
+						}
+						break;
+					case MAX_STATE:
+						currentLiteral.append(c);
+						if (c >= '0' && c <= '9') {
+							max = max * 10 + (c - '0');
+						} else {
+							finalizeConverter(c);
+							state = LITERAL_STATE;
+						}
+						break;
+				}
+			}
+			addLiteral();
+			//merge adjacent literals, e.g. around an unknown conversion character
+			List merged = new ArrayList();
+			for (int k = 0; k < list.size(); k++) {
+				Converter c2 = (Converter) list.get(k);
+				int last = merged.size() - 1;
+				if (c2 instanceof LiteralConverter && last >= 0 && merged.get(last) instanceof LiteralConverter) {
+					merged.set(last, new LiteralConverter(((LiteralConverter) merged.get(last)).literal + ((LiteralConverter) c2).literal));
+				} else {
+					merged.add(c2);
+				}
+			}
+			return (Converter[]) merged.toArray(new Converter[merged.size()]);
+		}
+
+		private void addLiteral() {
+			if (currentLiteral.length() != 0) {
+				list.add(new LiteralConverter(currentLiteral.toString()));
+			}
+			currentLiteral.setLength(0);
+		}
+
+		private void resetFormat() {
+			min = -1;
+			max = Integer.MAX_VALUE;
+			leftAlign = false;
+		}
+
+		private String extractOption() {
+			if ((i < patternLength) && (pattern.charAt(i) == '{')) {
+				int end = pattern.indexOf('}', i);
+				if (end > i) {
+					String r = pattern.substring(i + 1, end);
+					i = end + 1;
+					return r;
+				}
+			}
+			return null;
+		}
+
+		private int extractPrecisionOption() {
+			String opt = extractOption();
+			int r = 0;
+			if (opt != null) {
+				try {
+					r = Integer.parseInt(opt);
+					if (r <= 0) {
+						LogLog.error("Precision option (" + opt + ") isn't a positive integer.");
+						r = 0;
+					}
+				} catch (NumberFormatException e) {
+					LogLog.error("Category option \"" + opt + "\" not a decimal integer.", e);
+				}
+			}
+			return r;
+		}
+
+		private void finalizeConverter(char c) {
+			Converter pc;
+			switch (c) {
+				case 'c': pc = new NameConverter(false, extractPrecisionOption()); break;
+				case 'C': pc = new NameConverter(true, extractPrecisionOption()); break;
+				case 'd': pc = dateConverter(extractOption()); break;
+				case 'F': pc = new LocationConverter(LocationConverter.FILE); break;
+				case 'l': pc = new LocationConverter(LocationConverter.FULL); break;
+				case 'L': pc = new LocationConverter(LocationConverter.LINE); break;
+				case 'm': pc = new MessageConverter(); break;
+				case 'M': pc = new LocationConverter(LocationConverter.METHOD); break;
+				case 'p': pc = new LevelConverter(); break;
+				case 'r': pc = new RelativeTimeConverter(); break;
+				case 't': pc = new ThreadConverter(); break;
+				case 'x': pc = new NdcConverter(); break;
+				case 'X': pc = new MdcConverter(extractOption()); break;
+				default:
+					LogLog.error("Unexpected char [" + c + "] at position " + i + " in conversion patterrn.");
+					list.add(new LiteralConverter(currentLiteral.toString()));
+					currentLiteral.setLength(0);
+					state = LITERAL_STATE;
+					resetFormat();
+					return;
+			}
+			pc.min = min;
+			pc.max = max;
+			pc.leftAlign = leftAlign;
+			currentLiteral.setLength(0);
+			list.add(pc);
+			state = LITERAL_STATE;
+			resetFormat();
+		}
+
+		private Converter dateConverter(String option) {
+			String format = option == null ? "ISO8601" : option;
+			if (format.equalsIgnoreCase("ISO8601")) {
+				return new DateConverter("yyyy-MM-dd HH:mm:ss,SSS");
+			} else if (format.equalsIgnoreCase("ABSOLUTE")) {
+				return new DateConverter("HH:mm:ss,SSS");
+			} else if (format.equalsIgnoreCase("DATE")) {
+				return new DateConverter("dd MMM yyyy HH:mm:ss,SSS");
+			}
+			try {
+				return new DateConverter(format);
+			} catch (IllegalArgumentException e) {
+				LogLog.error("Could not instantiate SimpleDateFormat with " + format, e);
+				return new DateConverter("yyyy-MM-dd HH:mm:ss,SSS");
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package org.apache.log4j;
+
+/**
+ * A logging event which carries a diagnostic context of its own, in addition to
+ * log4j's <code>MDC</code>. Layouts use it to write all the context fields: the fields
+ * of its own context come first, followed by the MDC entries it does not hold.
+ */
+public interface ContextualEvent {
+
+	int getContextSize();
+
+	String getContextKey(int index);
+
+	String getContextValue(int index);
+}
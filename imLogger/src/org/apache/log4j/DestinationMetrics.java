@@ -0,0 +1,97 @@
+package org.apache.log4j;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * <p>Counters of a destination: events and bytes written, the latency of an append,
+ * flushes, rollovers and the errors reported to its error handler.
+ *
+ * <p>Everything is counted with <code>LongAdder</code>s, so concurrent writers do not
+ * contend on the counters. The counters on the path of every event are only updated
+ * when the system property <code>imLogger.metrics</code> is <code>true</code>, see {@link #ENABLED}.
+ */
+public final class DestinationMetrics implements DestinationMetricsMBean {
+
+	public static final String PROPERTY = "imLogger.metrics";
+
+	/** Whether the metrics are collected and registered with JMX, read once at startup. */
+	public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder events = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LatencyHistogram appendLatency = new LatencyHistogram();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder rollovers = new LongAdder();
+	private final LongAdder rolloverNanos = new LongAdder();
+	private final LongAccumulator rolloverMaxNanos = new LongAccumulator(MAX, 0);
+	private final LongAdder errors = new LongAdder();
+
+	/** An event of <code>size</code> bytes written in <code>nanos</code>. */
+	public void recordAppend(long size, long nanos) {
+		events.increment();
+		bytes.add(size);
+		appendLatency.record(nanos);
+	}
+
+	/** An event written by a destination which cannot time it. */
+	public void recordEvent(long size) {
+		events.increment();
+		bytes.add(size);
+	}
+
+	public void recordFlush() {
+		flushes.increment();
+	}
+
+	public void recordRollover(long nanos) {
+		rollovers.increment();
+		rolloverNanos.add(nanos);
+		rolloverMaxNanos.accumulate(nanos);
+	}
+
+	public void recordError() {
+		errors.increment();
+	}
+
+	public long getEventsWritten() {
+		return events.sum();
+	}
+	public long getBytesWritten() {
+		return bytes.sum();
+	}
+	public LatencyHistogram getAppendLatency() {
+		return appendLatency;
+	}
+	public long getAppendLatencyP50Nanos() {
+		return appendLatency.getPercentile(0.5);
+	}
+	public long getAppendLatencyP99Nanos() {
+		return appendLatency.getPercentile(0.99);
+	}
+	public long getAppendLatencyMaxNanos() {
+		return appendLatency.getMax();
+	}
+	public long getFlushCount() {
+		return flushes.sum();
+	}
+	public long getRolloverCount() {
+		return rollovers.sum();
+	}
+	public long getRolloverTotalMillis() {
+		return rolloverNanos.sum() / 1000000L;
+	}
+	public long getRolloverMaxMillis() {
+		return rolloverMaxNanos.get() / 1000000L;
+	}
+	public long getErrorCount() {
+		return errors.sum();
+	}
+}
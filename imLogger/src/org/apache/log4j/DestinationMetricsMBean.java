@@ -0,0 +1,27 @@
+package org.apache.log4j;
+
+/**
+ * JMX view of {@link DestinationMetrics}.
+ */
+public interface DestinationMetricsMBean {
+
+	long getEventsWritten();
+
+	long getBytesWritten();
+
+	long getAppendLatencyP50Nanos();
+
+	long getAppendLatencyP99Nanos();
+
+	long getAppendLatencyMaxNanos();
+
+	long getFlushCount();
+
+	long getRolloverCount();
+
+	long getRolloverTotalMillis();
+
+	long getRolloverMaxMillis();
+
+	long getErrorCount();
+}
@@ -0,0 +1,17 @@
+package org.apache.log4j;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * A layout which can write an event as bytes directly into a {@link ByteBuilder},
+ * skipping the intermediate <code>String</code> returned by {@link Layout#format(LoggingEvent)}.
+ * Text is written with {@link ByteBuilder#appendText(CharSequence)}, in the charset the
+ * destination set on the builder, unless the format defines its own.
+ *
+ * <p>The contract is the same as <code>format</code>: a layout which
+ * {@link Layout#ignoresThrowable() ignores the throwable} leaves it to the destination.
+ */
+public interface EncodedLayout {
+
+	void encode(LoggingEvent event, ByteBuilder out);
+}
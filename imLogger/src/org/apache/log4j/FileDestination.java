@@ -0,0 +1,18 @@
+package org.apache.log4j;
+
+import java.io.IOException;
+
+/**
+ * A destination which writes to a file it opens itself.
+ */
+public interface FileDestination {
+
+	/** The path of the file currently written. */
+	String getFile();
+
+	/**
+	 * Write <code>header</code> followed by a line separator if the file is empty,
+	 * through the destination's own file handle.
+	 */
+	void writeHeaderIfEmpty(String header) throws IOException;
+}
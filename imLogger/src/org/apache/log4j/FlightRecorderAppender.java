@@ -0,0 +1,433 @@
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>FlightRecorderAppender</code> keeps the most recent events in memory and
+ * writes them to the log file only when something goes wrong.
+ *
+ * <p>The encoded events are copied into a circular buffer of <b>BufferSize</b> bytes
+ * (default 8MB) allocated outside the heap, so recording an event is a memory copy
+ * which leaves nothing for the garbage collector. The oldest events are overwritten
+ * when the buffer is full.
+ *
+ * <p>The buffer is appended to <b>File</b> and cleared when an event at or above
+ * <b>TriggerLevel</b> (default <code>ERROR</code>) is recorded, when a message or a
+ * failed transaction is logged through <code>Logger.critical</code> and <b>DumpOnCritical</b>
+ * is set (the default), or on request through {@link #dump()}, {@link #dumpAll()} or JMX.
+ * A second buffer of the same size is kept: the logging thread only swaps the two and a
+ * background thread writes the full one to the file, so neither the caller nor the other
+ * threads logging to the recorder copy the buffer or wait for the disk. A dump triggered
+ * while the previous one is written is taken when its buffer is free again, with the
+ * events recorded meanwhile. A dump on request returns once it is written. An event
+ * partly overwritten by the wrap around is left out of the dump.
+ *
+ * <p>The recorder sees only the events enabled by the level of the logger, which is
+ * therefore set to <code>DEBUG</code>, with a <b>Threshold</b> on the other destinations
+ * of the logger.
+ */
+public class FlightRecorderAppender extends ByteAppender implements FlightRecorderAppenderMBean {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS";
+	/** Milliseconds the exiting JVM waits for the queued dumps. */
+	private static final long EXIT_WAIT = 10000;
+	/** Queued after the dumps being written, to wait for them. */
+	private static final Runnable AFTER_DUMPS = new Runnable() {
+		public void run() {
+		}
+	};
+
+	/** The recorders which are open, for {@link #dumpAll()}. */
+	private static final Set RECORDERS = new CopyOnWriteArraySet();
+
+	private String fileName;
+	private long bufferSize = DEFAULT_BUFFER_SIZE;
+	private Level triggerLevel = Level.ERROR;
+	private boolean dumpOnCritical = true;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private ByteBuffer ring;
+	/** The other buffer, <code>null</code> while a dump is written from it. */
+	private ByteBuffer spare;
+	private int position;
+	private boolean wrapped;
+	private long dumpCount;
+	/** The dump waiting for the spare buffer, <code>null</code> if none. */
+	private String pendingReason;
+	private long pendingTime;
+
+	public void activateOptions() {
+		if (fileName == null) {
+			LogLog.error("File option not set for appender [" + name + "].");
+			return;
+		}
+		lock.lock();
+		try {
+			int capacity = (int) Math.min(Integer.MAX_VALUE, bufferSize);
+			ring = ByteBuffer.allocateDirect(capacity);
+			spare = ByteBuffer.allocateDirect(capacity);
+			position = 0;
+			wrapped = false;
+		} finally {
+			lock.unlock();
+		}
+		RECORDERS.add(this);
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		Runnable task = null;
+		lock.lock();
+		try {
+			if (closed || ring == null) {
+				return;
+			}
+			record(bytes.array(), bytes.length());
+			if (event.getLevel().isGreaterOrEqual(triggerLevel)) {
+				task = takeDump(event.getLevel() + " event", System.currentTimeMillis());
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (task != null) {
+			submit(task);
+		}
+	}
+
+	/** Copy <code>len</code> bytes into the buffer after the last event, wrapping around at its end. */
+	private void record(byte[] b, int len) {
+		int capacity = ring.capacity();
+		int off = 0;
+		if (len >= capacity) {
+			//only the end of the event fits
+			off = len - capacity;
+			len = capacity;
+			position = 0;
+		}
+		int first = Math.min(len, capacity - position);
+		ring.position(position);
+		ring.put(b, off, first);
+		if (first < len) {
+			ring.position(0);
+			ring.put(b, off + first, len - first);
+		}
+		if (position + len >= capacity) {
+			wrapped = true;
+		}
+		position = (position + len) % capacity;
+	}
+
+	/** Write the buffered events to the file and clear the buffer, returns once they are written. */
+	public void dump() {
+		Runnable task = null;
+		lock.lock();
+		try {
+			if (!closed && ring != null) {
+				task = takeDump("requested", System.currentTimeMillis());
+				if (task == null && spare == null) {
+					//the buffered events are dumped once the dump being written is done
+					task = AFTER_DUMPS;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (task != null) {
+			Future written = submit(task);
+			try {
+				written.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				LogLog.error("Could not dump [" + name + "].", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Swap the buffer holding the events for the spare one, called under the lock. Returns the
+	 * dump writing them to the file, <code>null</code> if the buffer is empty or if the spare
+	 * buffer is still being written, the dump is then taken when it is given back.
+	 */
+	private Dump takeDump(String reason, long time) {
+		if (position == 0 && !wrapped) {
+			return null;
+		}
+		if (spare == null) {
+			if (pendingReason == null) {
+				pendingReason = reason;
+				pendingTime = time;
+			}
+			return null;
+		}
+		Dump dump = new Dump(reason, time, ring, position, wrapped);
+		ring = spare;
+		spare = null;
+		position = 0;
+		wrapped = false;
+		dumpCount++;
+		return dump;
+	}
+
+	/** Give back the buffer of a written dump, returns the dump which waited for it. */
+	private Dump recycle(ByteBuffer buffer) {
+		lock.lock();
+		try {
+			if (closed) {
+				return null;
+			}
+			spare = buffer;
+			String reason = pendingReason;
+			if (reason == null) {
+				return null;
+			}
+			pendingReason = null;
+			return takeDump(reason, pendingTime);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** The events of a full buffer, written by the dump writer thread which then gives the buffer back. */
+	private final class Dump implements Runnable {
+		final String reason;
+		final long time;
+		final ByteBuffer buffer;
+		/** The write position of the buffer. */
+		final int end;
+		final boolean wrapped;
+
+		Dump(String reason, long time, ByteBuffer buffer, int end, boolean wrapped) {
+			this.reason = reason;
+			this.time = time;
+			this.buffer = buffer;
+			this.end = end;
+			this.wrapped = wrapped;
+		}
+
+		public void run() {
+			Dump d = this;
+			while (d != null) {
+				try {
+					writeDump(d);
+				} finally {
+					d = recycle(d.buffer);
+				}
+			}
+		}
+	}
+
+	/** Append a dump to the file, oldest event first, on the dump writer thread. */
+	private void writeDump(Dump dump) {
+		File f = new File(fileName);
+		if (f.getParentFile() != null) {
+			f.getParentFile().mkdirs();
+		}
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			ByteBuilder header = new ByteBuilder();
+			header.setCharset(getCharset());
+			header.appendText("----- ").appendText(name).appendText(" ")
+					.appendText(new SimpleDateFormat(DATE_FORMAT).format(new Date(dump.time)))
+					.appendText(" dump on ").appendText(dump.reason).appendText(" -----").appendText(Layout.LINE_SEP);
+			writeFully(channel, ByteBuffer.wrap(header.array(), 0, header.length()));
+			ByteBuffer b = dump.buffer.duplicate();
+			int start = dump.wrapped ? oldestLine(b, dump.end) : 0;
+			b.clear();
+			if (dump.wrapped && start >= dump.end) {
+				b.position(start);
+				writeFully(channel, b);
+				b.clear();
+			}
+			b.limit(dump.end);
+			if (start < dump.end) {
+				b.position(start);
+			}
+			writeFully(channel, b);
+			metrics.recordFlush();
+		} catch (IOException e) {
+			errorHandler.error("Failed to dump to [" + fileName + "].", e, 0);
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					LogLog.error("Could not close [" + fileName + "].", e);
+				}
+			}
+		}
+	}
+
+	/** Hand a dump to the writer thread, or write it on the calling thread when the JVM is exiting. */
+	private static Future submit(Runnable task) {
+		try {
+			return DumpWriter.EXECUTOR.submit(task);
+		} catch (RejectedExecutionException e) {
+			FutureTask now = new FutureTask(task, null);
+			now.run();
+			return now;
+		}
+	}
+
+	/**
+	 * The thread writing the dumps, one at a time so the dumps of a file are not interleaved.
+	 * Created with the first dump; the dumps still queued are written when the JVM exits.
+	 */
+	private static final class DumpWriter {
+		static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "imLogger-FlightRecorderDump");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		static {
+			EXECUTOR.allowCoreThreadTimeOut(true);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					EXECUTOR.shutdown();
+					try {
+						EXECUTOR.awaitTermination(EXIT_WAIT, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "imLogger-FlightRecorderDumpExit"));
+		}
+	}
+
+	/** Start of the oldest complete line of a wrapped buffer, the line at the write position may have been partly overwritten. */
+	private static int oldestLine(ByteBuffer buffer, int position) {
+		int capacity = buffer.capacity();
+		for (int i = 0; i < capacity; i++) {
+			if (buffer.get((position + i) % capacity) == '\n') {
+				return (position + i + 1) % capacity;
+			}
+		}
+		return position;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+	}
+
+	/** Dump every open recorder. */
+	public static void dumpAll() {
+		Iterator i = RECORDERS.iterator();
+		while (i.hasNext()) {
+			((FlightRecorderAppender) i.next()).dump();
+		}
+	}
+
+	/** Dump the open recorders with <b>DumpOnCritical</b>, called by <code>Logger.critical</code>. */
+	public static void dumpForCritical() {
+		Iterator i = RECORDERS.iterator();
+		while (i.hasNext()) {
+			FlightRecorderAppender recorder = (FlightRecorderAppender) i.next();
+			if (recorder.dumpOnCritical) {
+				Runnable task = null;
+				recorder.lock.lock();
+				try {
+					if (!recorder.closed && recorder.ring != null) {
+						task = recorder.takeDump("critical", System.currentTimeMillis());
+					}
+				} finally {
+					recorder.lock.unlock();
+				}
+				if (task != null) {
+					submit(task);
+				}
+			}
+		}
+	}
+
+	/** Discard the buffered events, they are not dumped. */
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			ring = null;
+			spare = null;
+		} finally {
+			lock.unlock();
+		}
+		RECORDERS.remove(this);
+	}
+
+	public long getBufferCapacity() {
+		return bufferSize;
+	}
+
+	public long getBufferedBytes() {
+		lock.lock();
+		try {
+			return ring == null ? 0 : wrapped ? ring.capacity() : position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDumpCount() {
+		lock.lock();
+		try {
+			return dumpCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void setFile(String file) {
+		this.fileName = file.trim();
+	}
+	public String getFile() {
+		return fileName;
+	}
+	/** Size of the buffer, e.g. <code>16MB</code>, the spare buffer takes as much again. */
+	public void setBufferSize(String value) {
+		this.bufferSize = Math.max(64 * 1024, OptionConverter.toFileSize(value, DEFAULT_BUFFER_SIZE));
+	}
+	/** Level of the events which dump the buffer, <code>OFF</code> to dump only on request. */
+	public void setTriggerLevel(String level) {
+		this.triggerLevel = OptionConverter.toLevel(level, Level.ERROR);
+	}
+	public String getTriggerLevel() {
+		return triggerLevel.toString();
+	}
+	/** Dump the buffer when a monitoring record is logged through <code>Logger.critical</code>. */
+	public void setDumpOnCritical(boolean dumpOnCritical) {
+		this.dumpOnCritical = dumpOnCritical;
+	}
+	public boolean getDumpOnCritical() {
+		return dumpOnCritical;
+	}
+}
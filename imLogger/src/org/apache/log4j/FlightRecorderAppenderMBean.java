@@ -0,0 +1,18 @@
+package org.apache.log4j;
+
+/**
+ * JMX view of {@link FlightRecorderAppender}.
+ */
+public interface FlightRecorderAppenderMBean {
+
+	/** Write the buffered events to the file and clear the buffer. */
+	void dump();
+
+	long getBufferCapacity();
+
+	long getBufferedBytes();
+
+	long getDumpCount();
+
+	String getTriggerLevel();
+}
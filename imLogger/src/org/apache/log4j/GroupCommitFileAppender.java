@@ -0,0 +1,315 @@
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>GroupCommitFileAppender</code> writes to a file through a <code>FileChannel</code>
+ * and commits the records of concurrent callers together.
+ *
+ * <p>Callers queue their encoded record without locking. Whoever commits first drains
+ * every queued record into one buffer and writes it with a single call, optionally
+ * followed by <code>force</code>; callers queued meanwhile find their record already
+ * committed when they get the commit lock. The <b>CommitPolicy</b> option decides
+ * when a commit happens:
+ * <ul>
+ * <li><code>EVERY</code> - the caller returns once its record is committed (default).</li>
+ * <li><code>RECORDS</code> - the caller which queues the <b>CommitRecords</b>th pending record commits.</li>
+ * <li><code>INTERVAL</code> - a background thread commits every <b>CommitInterval</b> milliseconds.</li>
+ * </ul>
+ * Under <code>RECORDS</code> the background thread still commits leftovers every
+ * <b>CommitInterval</b> milliseconds. <b>Fsync</b> forces the data to the disk on each commit.
+ */
+public class GroupCommitFileAppender extends ByteAppender implements FileDestination {
+
+	public static final String POLICY_EVERY = "EVERY";
+	public static final String POLICY_RECORDS = "RECORDS";
+	public static final String POLICY_INTERVAL = "INTERVAL";
+
+	private static final class Record {
+		final byte[] data;
+		boolean committed;
+		Record(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	private String fileName;
+	private boolean fileAppend = true;
+	private String commitPolicy = POLICY_EVERY;
+	private int commitRecords = 64;
+	private long commitInterval = 1000;
+	private boolean fsync = false;
+	private int bufferSize = 64 * 1024;
+
+	private FileChannel channel;
+	private ByteBuffer commitBuffer;
+	private final ConcurrentLinkedQueue pending = new ConcurrentLinkedQueue();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final ReentrantLock commitLock = new ReentrantLock();
+	private final ArrayList batch = new ArrayList();
+	private Thread flusher;
+	/** Set by {@link #close()}, read without a lock by the flusher and the callers. */
+	private volatile boolean stopped;
+
+	private final AtomicLong commitCount = new AtomicLong();
+	private final AtomicLong committedRecords = new AtomicLong();
+	private volatile int lastCommitSize;
+	private volatile int maxCommitSize;
+
+	public void activateOptions() {
+		if (fileName == null) {
+			LogLog.error("File option not set for appender [" + name + "].");
+			return;
+		}
+		try {
+			File f = new File(fileName);
+			if (f.getParentFile() != null) {
+				f.getParentFile().mkdirs();
+			}
+			if (fileAppend) {
+				channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			} else {
+				channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			}
+		} catch (IOException e) {
+			errorHandler.error("Cannot open file [" + fileName + "].", e, 0);
+			return;
+		}
+		commitBuffer = ByteBuffer.allocateDirect(bufferSize);
+		if (POLICY_INTERVAL.equals(commitPolicy) && commitInterval <= 0) {
+			//nothing would ever commit the records
+			LogLog.warn("CommitInterval must be positive under " + POLICY_INTERVAL + " for " + name + ", using " + POLICY_EVERY + ".");
+			commitPolicy = POLICY_EVERY;
+		}
+		if (!POLICY_EVERY.equals(commitPolicy) && commitInterval > 0) {
+			flusher = new Thread(new Runnable() {
+				public void run() {
+					while (!stopped) {
+						LockSupport.parkNanos(commitInterval * 1000000L);
+						if (pendingCount.get() > 0) {
+							commit(null);
+						}
+					}
+				}
+			}, "GroupCommitFileAppender-" + name);
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		if (channel == null || stopped) {
+			return;
+		}
+		Record r = new Record(bytes.toByteArray());
+		pending.offer(r);
+		int count = pendingCount.incrementAndGet();
+		if (POLICY_EVERY.equals(commitPolicy) || stopped) {
+			//a record queued while closing is written by the final commit or dropped here, never left pending
+			commit(r);
+		} else if (POLICY_RECORDS.equals(commitPolicy) && count >= commitRecords) {
+			commit(null);
+		}
+	}
+
+	/**
+	 * Write all queued records with one call. When <code>waitFor</code> has been
+	 * committed by another caller in the meantime, nothing is done.
+	 */
+	private void commit(Record waitFor) {
+		commitLock.lock();
+		try {
+			if (waitFor != null && waitFor.committed) {
+				return;
+			}
+			Record r;
+			if (!channel.isOpen()) {
+				//closed, the records queued after the final commit are dropped
+				while (pending.poll() != null) {
+					pendingCount.decrementAndGet();
+				}
+				return;
+			}
+			commitBuffer.clear();
+			while ((r = (Record) pending.poll()) != null) {
+				pendingCount.decrementAndGet();
+				if (r.data.length > commitBuffer.remaining()) {
+					flushBuffer();
+					if (r.data.length > commitBuffer.capacity()) {
+						writeFully(ByteBuffer.wrap(r.data));
+					} else {
+						commitBuffer.put(r.data);
+					}
+				} else {
+					commitBuffer.put(r.data);
+				}
+				batch.add(r);
+			}
+			int size = batch.size();
+			if (size == 0) {
+				return;
+			}
+			flushBuffer();
+			if (fsync) {
+				channel.force(false);
+			}
+			for (int i = 0; i < size; i++) {
+				((Record) batch.get(i)).committed = true;
+			}
+			batch.clear();
+			metrics.recordFlush();
+			commitCount.incrementAndGet();
+			committedRecords.addAndGet(size);
+			lastCommitSize = size;
+			if (size > maxCommitSize) {
+				maxCommitSize = size;
+			}
+		} catch (IOException e) {
+			batch.clear();
+			errorHandler.error("Failed to write to [" + fileName + "].", e, 0);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		commitBuffer.flip();
+		writeFully(commitBuffer);
+		commitBuffer.clear();
+	}
+
+	private void writeFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+	}
+
+	public void writeHeaderIfEmpty(String header) throws IOException {
+		if (channel == null) {
+			return;
+		}
+		commitLock.lock();
+		try {
+			if (channel.size() == 0) {
+				ByteBuilder b = new ByteBuilder();
+				b.setCharset(getCharset());
+				b.appendText(header).appendText(Layout.LINE_SEP);
+				writeFully(b.toByteBuffer());
+			}
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		stopped = true;
+		if (flusher != null) {
+			LockSupport.unpark(flusher);
+		}
+		if (channel == null) {
+			return;
+		}
+		commitLock.lock();
+		try {
+			commit(null);
+			if (fsync) {
+				channel.force(true);
+			}
+			channel.close();
+		} catch (IOException e) {
+			LogLog.error("Could not close [" + fileName + "].", e);
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	public void setFile(String file) {
+		this.fileName = file.trim();
+	}
+	public String getFile() {
+		return fileName;
+	}
+	public void setAppend(boolean append) {
+		this.fileAppend = append;
+	}
+	public boolean getAppend() {
+		return fileAppend;
+	}
+	/** One of <code>EVERY</code>, <code>RECORDS</code> or <code>INTERVAL</code>. */
+	public void setCommitPolicy(String policy) {
+		String p = policy == null ? "" : policy.trim().toUpperCase();
+		if (POLICY_EVERY.equals(p) || POLICY_RECORDS.equals(p) || POLICY_INTERVAL.equals(p)) {
+			this.commitPolicy = p;
+		} else {
+			LogLog.warn("Unknown commit policy [" + policy + "] for " + name + ", using " + POLICY_EVERY + ".");
+			this.commitPolicy = POLICY_EVERY;
+		}
+	}
+	public String getCommitPolicy() {
+		return commitPolicy;
+	}
+	/** Number of pending records which triggers a commit under the <code>RECORDS</code> policy. */
+	public void setCommitRecords(int commitRecords) {
+		this.commitRecords = Math.max(1, commitRecords);
+	}
+	public int getCommitRecords() {
+		return commitRecords;
+	}
+	/** Milliseconds between background commits, 0 for none, which <code>INTERVAL</code> does not accept. */
+	public void setCommitInterval(long commitInterval) {
+		this.commitInterval = commitInterval;
+	}
+	public long getCommitInterval() {
+		return commitInterval;
+	}
+	/** Force the file content to the disk after each commit. */
+	public void setFsync(boolean fsync) {
+		this.fsync = fsync;
+	}
+	public boolean getFsync() {
+		return fsync;
+	}
+	/** Size in bytes of the commit buffer. */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(1024, bufferSize);
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/** Number of commits, i.e. write calls for a group of records. */
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+	/** Number of records written by all commits. */
+	public long getCommittedRecords() {
+		return committedRecords.get();
+	}
+	/** Number of records written by the last commit. */
+	public int getLastCommitSize() {
+		return lastCommitSize;
+	}
+	/** Largest number of records written by one commit. */
+	public int getMaxCommitSize() {
+		return maxCommitSize;
+	}
+}
@@ -0,0 +1,219 @@
+package org.apache.log4j;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+/**
+ * <p><code>JsonLayout</code> writes each event as one line of JSON, for log shippers
+ * which would otherwise parse the text of a pattern layout:
+ * <pre>
+ * {"timestamp":"2002-02-07T14:33:00.123Z","level":"INFO","thread":"main","logger":"app",
+ *  "message":"...","context":{"requestId":"..."},"exception":[...]}
+ * </pre>
+ * <code>context</code> holds the fields of a {@link ContextualEvent}, including the
+ * values set with <code>MDC.put</code> which its own context does not hold; <code>ndc</code>,
+ * <code>location</code> (with the <b>LocationInfo</b> option) and <code>exception</code>
+ * are only written when they are set. The exception is an array with one object per
+ * cause, each with <code>class</code>, <code>message</code> and <code>stack</code>, an
+ * array of frames.
+ *
+ * <p>The event is written straight into the destination buffer: the constant parts,
+ * including the field names, are encoded once when the layout is created and strings
+ * are escaped and encoded in one pass, see {@link ByteBuilder#appendJson(CharSequence)}.
+ * The timestamp is UTC; each thread keeps the text of the last second it wrote. The
+ * output is UTF-8, as JSON requires, whatever the <b>Encoding</b> of the destination.
+ *
+ * <p>Select it in the configuration file with <code>&lt;layout type="JSON"/&gt;</code>.
+ */
+public class JsonLayout extends Layout implements EncodedLayout {
+
+	private static final ThreadLocal BUFFER = new ThreadLocal() {
+		protected Object initialValue() {
+			return new ByteBuilder(512);
+		}
+	};
+
+	private static final ThreadLocal DATE_CACHE = new ThreadLocal() {
+		protected Object initialValue() {
+			return new DateCache();
+		}
+	};
+
+	/** The text of the last second formatted by a thread. */
+	private static final class DateCache {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.");
+		long second = Long.MIN_VALUE;
+		byte[] text;
+
+		DateCache() {
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+	}
+
+	private static final byte[] TIMESTAMP = bytes("{\"timestamp\":\"");
+	private static final byte[] LEVEL = bytes("Z\",\"level\":\"");
+	private static final byte[] THREAD = bytes("\",\"thread\":\"");
+	private static final byte[] LOGGER = bytes("\",\"logger\":\"");
+	private static final byte[] MESSAGE = bytes("\",\"message\":\"");
+	private static final byte[] CONTEXT = bytes(",\"context\":{");
+	private static final byte[] NDC = bytes(",\"ndc\":\"");
+	private static final byte[] LOCATION = bytes(",\"location\":{\"class\":\"");
+	private static final byte[] METHOD = bytes("\",\"method\":\"");
+	private static final byte[] FILE = bytes("\",\"file\":\"");
+	private static final byte[] LINE = bytes("\",\"line\":\"");
+	private static final byte[] EXCEPTION = bytes(",\"exception\":[");
+	private static final byte[] CLASS = bytes("{\"class\":\"");
+	private static final byte[] CAUSE_MESSAGE = bytes("\",\"message\":\"");
+	private static final byte[] STACK = bytes("\",\"stack\":[");
+	private static final byte[] STACK_LINES = bytes("{\"stack\":[");
+	private static final byte[] QUOTE_COLON_QUOTE = bytes("\":\"");
+	private static final byte[] END = bytes("}\n");
+
+	private boolean locationInfo = false;
+
+	public void activateOptions() {
+	}
+
+	public String format(LoggingEvent event) {
+		ByteBuilder b = (ByteBuilder) BUFFER.get();
+		b.reset();
+		encode(event, b);
+		return new String(b.array(), 0, b.length(), StandardCharsets.UTF_8);
+	}
+
+	public void encode(LoggingEvent event, ByteBuilder out) {
+		out.append(TIMESTAMP);
+		appendTimestamp(event.timeStamp, out);
+		out.append(LEVEL).appendUtf8(event.getLevel().toString());
+		out.append(THREAD).appendJson(event.getThreadName());
+		out.append(LOGGER).appendJson(event.getLoggerName());
+		out.append(MESSAGE);
+		String message = event.getRenderedMessage();
+		if (message != null) {
+			out.appendJson(message);
+		}
+		out.append((byte) '"');
+		if (event instanceof ContextualEvent) {
+			appendContext((ContextualEvent) event, out);
+		}
+		String ndc = event.getNDC();
+		if (ndc != null) {
+			out.append(NDC).appendJson(ndc).append((byte) '"');
+		}
+		if (locationInfo) {
+			LocationInfo l = event.getLocationInformation();
+			out.append(LOCATION).appendJson(l.getClassName());
+			out.append(METHOD).appendJson(l.getMethodName());
+			out.append(FILE).appendJson(l.getFileName());
+			out.append(LINE).appendJson(l.getLineNumber()).append((byte) '"').append((byte) '}');
+		}
+		ThrowableInformation ti = event.getThrowableInformation();
+		if (ti != null) {
+			out.append(EXCEPTION);
+			Throwable t = ti.getThrowable();
+			if (t != null) {
+				appendThrowable(t, out);
+			} else {
+				appendStackLines(event.getThrowableStrRep(), out);
+			}
+			out.append((byte) ']');
+		}
+		out.append(END);
+	}
+
+	private static void appendTimestamp(long time, ByteBuilder out) {
+		DateCache c = (DateCache) DATE_CACHE.get();
+		long second = Math.floorDiv(time, 1000L);
+		if (second != c.second) {
+			c.text = bytes(c.format.format(new Date(time)));
+			c.second = second;
+		}
+		int ms = (int) Math.floorMod(time, 1000L);
+		out.append(c.text)
+			.append((byte) ('0' + ms / 100))
+			.append((byte) ('0' + (ms / 10) % 10))
+			.append((byte) ('0' + ms % 10));
+	}
+
+	private static void appendContext(ContextualEvent event, ByteBuilder out) {
+		int size = event.getContextSize();
+		if (size == 0) {
+			return;
+		}
+		out.append(CONTEXT);
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				out.append((byte) ',');
+			}
+			out.append((byte) '"').appendJson(event.getContextKey(i)).append(QUOTE_COLON_QUOTE).appendJson(event.getContextValue(i)).append((byte) '"');
+		}
+		out.append((byte) '}');
+	}
+
+	/** One object per throwable of the cause chain. */
+	private static void appendThrowable(Throwable t, ByteBuilder out) {
+		boolean first = true;
+		for (int depth = 0; t != null && depth < 64; t = t.getCause(), depth++) {
+			if (!first) {
+				out.append((byte) ',');
+			}
+			first = false;
+			out.append(CLASS).appendJson(t.getClass().getName());
+			out.append(CAUSE_MESSAGE);
+			if (t.getMessage() != null) {
+				out.appendJson(t.getMessage());
+			}
+			out.append(STACK);
+			StackTraceElement[] frames = t.getStackTrace();
+			for (int i = 0; i < frames.length; i++) {
+				if (i > 0) {
+					out.append((byte) ',');
+				}
+				out.append((byte) '"').appendJson(frames[i].toString()).append((byte) '"');
+			}
+			out.append((byte) ']').append((byte) '}');
+			if (t.getCause() == t) {
+				break;
+			}
+		}
+	}
+
+	/** The stack trace text of an event whose throwable is not available, e.g. a deserialized event. */
+	private static void appendStackLines(String[] lines, ByteBuilder out) {
+		out.append(STACK_LINES);
+		for (int i = 0; lines != null && i < lines.length; i++) {
+			if (i > 0) {
+				out.append((byte) ',');
+			}
+			out.append((byte) '"').appendJson(lines[i]).append((byte) '"');
+		}
+		out.append((byte) ']').append((byte) '}');
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** The exception is written by the layout. */
+	public boolean ignoresThrowable() {
+		return false;
+	}
+
+	public String getContentType() {
+		return "application/json";
+	}
+
+	/** Write the class, method, file and line of the caller, which is expensive to find. */
+	public void setLocationInfo(boolean locationInfo) {
+		this.locationInfo = locationInfo;
+	}
+	public boolean getLocationInfo() {
+		return locationInfo;
+	}
+}
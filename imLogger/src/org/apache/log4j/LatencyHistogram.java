@@ -0,0 +1,114 @@
+package org.apache.log4j;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * <p>A histogram of non negative values, e.g. nanoseconds, which can be recorded by
+ * many threads without contention.
+ *
+ * <p>The buckets are log-linear: values below 8 have their own bucket, above that each
+ * power of two is split into 8 buckets, so a percentile is accurate to 12.5%. Every
+ * bucket is a <code>LongAdder</code>.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[index(value)].increment();
+		max.accumulate(value);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts[i].sum();
+		}
+		return count;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * The value below which <code>percentile</code> (0 to 1) of the recorded values
+	 * fall, given as the upper bound of its bucket. 0 when nothing is recorded.
+	 */
+	public long getPercentile(double percentile) {
+		return getPercentile(getCounts(), percentile, getMax());
+	}
+
+	/** A snapshot of the bucket counts, e.g. to work out the values recorded since an earlier snapshot. */
+	public long[] getCounts() {
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Same as {@link #getPercentile(double)} for the bucket counts of {@link #getCounts()},
+	 * no more than <code>max</code> is returned.
+	 */
+	public static long getPercentile(long[] counts, double percentile, long max) {
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				long upper = i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+				return Math.min(upper, max);
+			}
+		}
+		return max;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long lowerBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int msb = index / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		return (1L << msb) | ((long) sub << (msb - SUB_BITS));
+	}
+}
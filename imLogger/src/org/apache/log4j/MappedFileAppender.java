@@ -0,0 +1,303 @@
+package org.apache.log4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>MappedFileAppender</code> appends the encoded events into a memory mapped
+ * region of the log file, so writing an event is a memory copy without system call.
+ *
+ * <p>The file is mapped in chunks of <b>MapSize</b> bytes (default 32 MB) starting at
+ * the end of the data; when a chunk is full the next one is mapped. The mapped but
+ * unused tail is cut off when the file is closed or rolled over. After a crash the
+ * tail is recognised by its zero bytes and overwritten on the next start.
+ *
+ * <p>With the <b>DatePattern</b> option, e.g. <code>'.'yyyy-MM-dd'.backup'</code>, the
+ * file is rolled over like {@link DailyRollingFileAppender}.
+ *
+ * <p>A destination replacing one of the same file on a reload takes over its open file
+ * and mapping, and the events still written to the replaced destination are passed on.
+ */
+public class MappedFileAppender extends ByteAppender implements FileDestination, ReplacingDestination {
+
+	public static final int DEFAULT_MAP_SIZE = 32 * 1024 * 1024;
+
+	private String fileName;
+	private boolean fileAppend = true;
+	private int mapSize = DEFAULT_MAP_SIZE;
+	private String datePattern;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	private long position;
+
+	private RollingPeriod rollingPeriod;
+	private long periodTime;
+	private long nextRollover = Long.MAX_VALUE;
+
+	/** The destination replaced on a reload, until the options are activated. */
+	private MappedFileAppender previous;
+	/** The destination which took over the file, guarded by the lock. */
+	private MappedFileAppender successor;
+
+	public void activateOptions() {
+		if (fileName == null) {
+			LogLog.error("File option not set for appender [" + name + "].");
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (datePattern != null) {
+			rollingPeriod = new RollingPeriod(datePattern);
+			File f = new File(fileName);
+			periodTime = f.exists() ? f.lastModified() : now;
+			nextRollover = rollingPeriod.nextBoundary(now);
+		}
+		MappedFileAppender p = previous;
+		previous = null;
+		if (p != null && p.handOver(this)) {
+			LogLog.debug("[" + name + "] took over the open file [" + fileName + "].");
+			return;
+		}
+		try {
+			openFile(fileAppend);
+		} catch (IOException e) {
+			errorHandler.error("Cannot open file [" + fileName + "].", e, 0);
+		}
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (successor != null) {
+				//the successor never takes the lock of the destination it replaced
+				successor.write(event, bytes);
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (now >= nextRollover) {
+				rollOver(now);
+			}
+			if (channel == null) {
+				return;
+			}
+			int len = bytes.length();
+			if (map == null || map.remaining() < len) {
+				remap(len);
+			}
+			map.put(bytes.array(), 0, len);
+			position += len;
+		} catch (IOException e) {
+			errorHandler.error("Failed to write to [" + fileName + "].", e, 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Give the open file to the destination replacing this one, if it writes the same file. */
+	private boolean handOver(MappedFileAppender next) {
+		lock.lock();
+		try {
+			if (closed || channel == null || !canonicalPath(fileName).equals(canonicalPath(next.fileName))) {
+				return false;
+			}
+			next.channel = channel;
+			next.map = map;
+			next.position = position;
+			if (rollingPeriod != null && next.rollingPeriod != null) {
+				next.periodTime = periodTime;
+			}
+			channel = null;
+			map = null;
+			successor = next;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void openFile(boolean append) throws IOException {
+		File f = new File(fileName);
+		if (f.getParentFile() != null) {
+			f.getParentFile().mkdirs();
+		}
+		channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (append) {
+			position = findDataEnd(channel);
+		} else {
+			channel.truncate(0);
+			position = 0;
+		}
+		map = null;
+	}
+
+	private void remap(int required) throws IOException {
+		unmap(map);
+		map = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(mapSize, required));
+	}
+
+	/** Cut off the unused mapped tail and close the file. */
+	private void closeFile() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		if (map != null) {
+			map.force();
+			metrics.recordFlush();
+			unmap(map);
+			map = null;
+		}
+		channel.truncate(position);
+		channel.close();
+		channel = null;
+	}
+
+	private void rollOver(long now) throws IOException {
+		nextRollover = rollingPeriod.nextBoundary(now);
+		String scheduledFilename = fileName + rollingPeriod.format(periodTime);
+		periodTime = now;
+		if (scheduledFilename.equals(fileName + rollingPeriod.format(now))) {
+			return;
+		}
+		long start = System.nanoTime();
+		closeFile();
+		File target = new File(scheduledFilename);
+		if (target.exists()) {
+			target.delete();
+		}
+		File file = new File(fileName);
+		if (file.renameTo(target)) {
+			LogLog.debug(fileName + " -> " + scheduledFilename);
+		} else {
+			LogLog.error("Failed to rename [" + fileName + "] to [" + scheduledFilename + "].");
+		}
+		openFile(true);
+		metrics.recordRollover(System.nanoTime() - start);
+	}
+
+	public void writeHeaderIfEmpty(String header) throws IOException {
+		ByteBuilder b = new ByteBuilder();
+		b.setCharset(getCharset());
+		b.appendText(header).appendText(Layout.LINE_SEP);
+		lock.lock();
+		try {
+			if (channel != null && position == 0) {
+				remap(b.length());
+				map.put(b.array(), 0, b.length());
+				position += b.length();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			closeFile();
+		} catch (IOException e) {
+			LogLog.error("Could not close [" + fileName + "].", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Length of the data in the file, ignoring the zero filled tail left by a mapping which was not trimmed. */
+	private static long findDataEnd(FileChannel channel) throws IOException {
+		long end = channel.size();
+		ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+		while (end > 0) {
+			int len = (int) Math.min(buf.capacity(), end);
+			buf.clear().limit(len);
+			long start = end - len;
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, start + buf.position()) < 0) {
+					break;
+				}
+			}
+			for (int i = len - 1; i >= 0; i--) {
+				if (buf.get(i) != 0) {
+					return start + i + 1;
+				}
+			}
+			end = start;
+		}
+		return 0;
+	}
+
+	private static Object unsafe;
+	private static Method invokeCleaner;
+	static {
+		try {
+			Class c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = c.getMethod("invokeCleaner", new Class[] {ByteBuffer.class});
+		} catch (Exception e) {
+			//before Java 9 the mapping is released by the garbage collector
+			invokeCleaner = null;
+		}
+	}
+
+	/** Release the mapping now instead of waiting for the garbage collector. */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (buffer == null || invokeCleaner == null) {
+			return;
+		}
+		try {
+			invokeCleaner.invoke(unsafe, new Object[] {buffer});
+		} catch (Exception e) {
+			LogLog.debug("Could not unmap buffer.", e);
+		}
+	}
+
+	public void setFile(String file) {
+		this.fileName = file.trim();
+	}
+	public String getFile() {
+		return fileName;
+	}
+	public void setAppend(boolean append) {
+		this.fileAppend = append;
+	}
+	public boolean getAppend() {
+		return fileAppend;
+	}
+	/** Size in bytes of each mapped chunk. */
+	public void setMapSize(int mapSize) {
+		this.mapSize = Math.max(64 * 1024, mapSize);
+	}
+	public int getMapSize() {
+		return mapSize;
+	}
+	public void replaces(Appender previous) {
+		if (previous instanceof MappedFileAppender) {
+			this.previous = (MappedFileAppender) previous;
+		}
+	}
+	/** Date pattern of the rollover, see {@link DailyRollingFileAppender#setDatePattern(String)}. */
+	public void setDatePattern(String datePattern) {
+		this.datePattern = datePattern;
+	}
+	public String getDatePattern() {
+		return datePattern;
+	}
+}
@@ -0,0 +1,15 @@
+package org.apache.log4j;
+
+/**
+ * A message object made of a pattern with <code>{}</code> placeholders and its
+ * arguments, which a destination may store without formatting it.
+ */
+public interface MessageTemplate {
+
+	String getPattern();
+
+	/** The arguments, the array may be longer than {@link #getArgumentCount()}. */
+	Object[] getArguments();
+
+	int getArgumentCount();
+}
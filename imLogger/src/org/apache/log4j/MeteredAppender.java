@@ -0,0 +1,9 @@
+package org.apache.log4j;
+
+/**
+ * A destination which records its own {@link DestinationMetrics}.
+ */
+public interface MeteredAppender extends Appender {
+
+	DestinationMetrics getMetrics();
+}
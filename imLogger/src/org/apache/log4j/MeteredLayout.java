@@ -0,0 +1,50 @@
+package org.apache.log4j;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p>Counts the events formatted by a layout, for the log4j destinations which do not
+ * record {@link DestinationMetrics} themselves. Such a destination formats each event
+ * it writes exactly once, the size is counted in characters.
+ */
+public final class MeteredLayout extends Layout {
+
+	private final Layout layout;
+	private final DestinationMetrics metrics;
+
+	public MeteredLayout(Layout layout, DestinationMetrics metrics) {
+		this.layout = layout;
+		this.metrics = metrics;
+	}
+
+	public String format(LoggingEvent event) {
+		String s = layout.format(event);
+		metrics.recordEvent(s.length());
+		return s;
+	}
+
+	public boolean ignoresThrowable() {
+		return layout.ignoresThrowable();
+	}
+
+	public String getContentType() {
+		return layout.getContentType();
+	}
+
+	public String getHeader() {
+		return layout.getHeader();
+	}
+
+	public String getFooter() {
+		return layout.getFooter();
+	}
+
+	public void activateOptions() {
+		layout.activateOptions();
+	}
+
+	/** The layout doing the formatting. */
+	public Layout getLayout() {
+		return layout;
+	}
+}
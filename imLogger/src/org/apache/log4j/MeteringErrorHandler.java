@@ -0,0 +1,54 @@
+package org.apache.log4j;
+
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Counts the errors reported by a destination into its {@link DestinationMetrics}
+ * and passes them on to the original error handler.
+ */
+public final class MeteringErrorHandler implements ErrorHandler {
+
+	private final ErrorHandler errorHandler;
+	private final DestinationMetrics metrics;
+
+	public MeteringErrorHandler(ErrorHandler errorHandler, DestinationMetrics metrics) {
+		this.errorHandler = errorHandler;
+		this.metrics = metrics;
+	}
+
+	public void error(String message, Exception e, int errorCode) {
+		metrics.recordError();
+		errorHandler.error(message, e, errorCode);
+	}
+
+	public void error(String message) {
+		metrics.recordError();
+		errorHandler.error(message);
+	}
+
+	public void error(String message, Exception e, int errorCode, LoggingEvent event) {
+		metrics.recordError();
+		errorHandler.error(message, e, errorCode, event);
+	}
+
+	public void setLogger(Logger logger) {
+		errorHandler.setLogger(logger);
+	}
+
+	public void setAppender(Appender appender) {
+		errorHandler.setAppender(appender);
+	}
+
+	public void setBackupAppender(Appender appender) {
+		errorHandler.setBackupAppender(appender);
+	}
+
+	public void activateOptions() {
+		errorHandler.activateOptions();
+	}
+
+	public DestinationMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,15 @@
+package org.apache.log4j;
+
+/**
+ * A destination which takes over the file of the destination it replaces when a
+ * configuration is reloaded, instead of opening the file while the replaced destination
+ * still has it open.
+ */
+public interface ReplacingDestination {
+
+	/**
+	 * Called before the options are activated with the destination of the same name which is
+	 * being replaced. It is closed once the events in flight have been written to it.
+	 */
+	void replaces(Appender previous);
+}
@@ -0,0 +1,126 @@
+package org.apache.log4j;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The rollover schedule of a date pattern such as <code>'.'yyyy-MM-dd'.backup'</code>.
+ *
+ * <p>The period is derived from the pattern the same way as
+ * {@link DailyRollingFileAppender} does: the shortest of minute, hour, half day,
+ * day, week and month which changes the formatted text. Instances are immutable
+ * and can be shared between threads.
+ */
+public final class RollingPeriod {
+
+	public static final int TOP_OF_TROUBLE = -1;
+	public static final int TOP_OF_MINUTE = 0;
+	public static final int TOP_OF_HOUR = 1;
+	public static final int HALF_DAY = 2;
+	public static final int TOP_OF_DAY = 3;
+	public static final int TOP_OF_WEEK = 4;
+	public static final int TOP_OF_MONTH = 5;
+
+	private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+	private final String datePattern;
+	private final int type;
+
+	public RollingPeriod(String datePattern) {
+		this.datePattern = datePattern;
+		this.type = computeType(datePattern);
+	}
+
+	public String getDatePattern() {
+		return datePattern;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	/** Format <code>time</code> with the date pattern, e.g. the suffix of the backup file covering <code>time</code>. */
+	public String format(long time) {
+		return new SimpleDateFormat(datePattern).format(new Date(time));
+	}
+
+	/** The first instant of the next period after <code>time</code>, in the default time zone. */
+	public long nextBoundary(long time) {
+		return nextBoundary(new GregorianCalendar(), type, time);
+	}
+
+	private static long nextBoundary(Calendar c, int type, long time) {
+		c.setTimeInMillis(time);
+		switch (type) {
+			case TOP_OF_MINUTE:
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+				c.add(Calendar.MINUTE, 1);
+				break;
+			case TOP_OF_HOUR:
+				c.set(Calendar.MINUTE, 0);
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+				c.add(Calendar.HOUR_OF_DAY, 1);
+				break;
+			case HALF_DAY:
+				c.set(Calendar.MINUTE, 0);
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+				if (c.get(Calendar.HOUR_OF_DAY) < 12) {
+					c.set(Calendar.HOUR_OF_DAY, 12);
+				} else {
+					c.set(Calendar.HOUR_OF_DAY, 0);
+					c.add(Calendar.DAY_OF_MONTH, 1);
+				}
+				break;
+			case TOP_OF_DAY:
+				c.set(Calendar.HOUR_OF_DAY, 0);
+				c.set(Calendar.MINUTE, 0);
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+				c.add(Calendar.DATE, 1);
+				break;
+			case TOP_OF_WEEK:
+				c.set(Calendar.DAY_OF_WEEK, c.getFirstDayOfWeek());
+				c.set(Calendar.HOUR_OF_DAY, 0);
+				c.set(Calendar.MINUTE, 0);
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+				c.add(Calendar.WEEK_OF_YEAR, 1);
+				break;
+			case TOP_OF_MONTH:
+				c.set(Calendar.DATE, 1);
+				c.set(Calendar.HOUR_OF_DAY, 0);
+				c.set(Calendar.MINUTE, 0);
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+				c.add(Calendar.MONTH, 1);
+				break;
+			default:
+				return Long.MAX_VALUE;
+		}
+		return c.getTimeInMillis();
+	}
+
+	private static int computeType(String datePattern) {
+		if (datePattern == null) {
+			return TOP_OF_TROUBLE;
+		}
+		Calendar c = new GregorianCalendar(GMT, Locale.ENGLISH);
+		SimpleDateFormat format = new SimpleDateFormat(datePattern);
+		format.setTimeZone(GMT);
+		String r0 = format.format(new Date(0));
+		for (int i = TOP_OF_MINUTE; i <= TOP_OF_MONTH; i++) {
+			String r1 = format.format(new Date(nextBoundary(c, i, 0)));
+			if (!r0.equals(r1)) {
+				return i;
+			}
+		}
+		return TOP_OF_TROUBLE;
+	}
+}
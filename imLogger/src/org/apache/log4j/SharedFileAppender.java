@@ -0,0 +1,233 @@
+package org.apache.log4j;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>SharedFileAppender</code> writes to a file which may be shared with the
+ * destinations of other loggers.
+ *
+ * <p>The files are kept in a process wide registry keyed by their canonical path. The
+ * first destination of a file opens it with its options; the others writing to the same
+ * file join it, so all of them go through one handle with a single buffer and the file is
+ * rolled over once, see {@link BackgroundRollingFileAppender}. The file is closed when the
+ * last of its destinations is closed. A destination whose options differ from those the
+ * file was opened with reopens the file with its options when the only other destination
+ * writing to it is the one it replaces on a reload; otherwise its options are not applied
+ * and an error is logged.
+ *
+ * <p>Each destination keeps its own layout, filters and threshold, the events are encoded
+ * by the destination and only the write goes to the shared file. The flushes, rollovers
+ * and write errors are counted in the metrics and reported to the error handler of the
+ * destination whose event caused them.
+ */
+public class SharedFileAppender extends ByteAppender implements FileDestination, ReplacingDestination {
+
+	/** The open files by canonical path, guarded by <code>FILES_LOCK</code>. */
+	private static final HashMap FILES = new HashMap();
+	private static final ReentrantLock FILES_LOCK = new ReentrantLock();
+
+	/** A file with the number of destinations writing to it, changed under <code>FILES_LOCK</code>. */
+	private static final class SharedFile {
+		final String path;
+		String options;
+		volatile BackgroundRollingFileAppender writer;
+		int references;
+		SharedFile(String path, String options, BackgroundRollingFileAppender writer) {
+			this.path = path;
+			this.options = options;
+			this.writer = writer;
+		}
+	}
+
+	private String fileName;
+	private boolean fileAppend = true;
+	private String datePattern;
+	private boolean rollOnStart = false;
+	private boolean immediateFlush = true;
+	private int bufferSize = 8 * 1024;
+	private long indexInterval = BackgroundRollingFileAppender.DEFAULT_INDEX_INTERVAL;
+
+	private volatile SharedFile shared;
+	/** The destination replaced on a reload, until the options are activated. */
+	private SharedFileAppender previous;
+
+	public void activateOptions() {
+		if (fileName == null) {
+			LogLog.error("File option not set for appender [" + name + "].");
+			return;
+		}
+		String path = canonicalPath(fileName);
+		String options = datePattern + "," + rollOnStart + "," + fileAppend + "," + immediateFlush + "," + bufferSize + "," + indexInterval + "," + getEncoding();
+		FILES_LOCK.lock();
+		try {
+			if (shared != null) {
+				release();
+			}
+			SharedFile file = (SharedFile) FILES.get(path);
+			if (file == null) {
+				file = new SharedFile(path, options, openWriter(path));
+				FILES.put(path, file);
+				LogLog.debug("Opened shared file [" + path + "] for [" + name + "].");
+			} else if (!file.options.equals(options)) {
+				SharedFileAppender p = previous;
+				if (file.references == (p != null && p.shared == file ? 1 : 0)) {
+					//only the replaced destination writes to the file, it goes on with the new writer until it is closed
+					BackgroundRollingFileAppender old = file.writer;
+					file.writer = openWriter(path);
+					file.options = options;
+					old.close();
+					LogLog.debug("Reopened shared file [" + path + "] with the options of [" + name + "].");
+				} else {
+					LogLog.error("File [" + path + "] is written by other destinations with other options, the options of [" + name + "] are not applied.");
+				}
+			}
+			file.references++;
+			shared = file;
+		} finally {
+			previous = null;
+			FILES_LOCK.unlock();
+		}
+	}
+
+	private BackgroundRollingFileAppender openWriter(String path) {
+		BackgroundRollingFileAppender writer = new BackgroundRollingFileAppender();
+		writer.setName(path);
+		writer.setFile(fileName);
+		writer.setAppend(fileAppend);
+		writer.setDatePattern(datePattern);
+		writer.setRollOnStart(rollOnStart);
+		writer.setImmediateFlush(immediateFlush);
+		writer.setBufferSize(bufferSize);
+		writer.setIndexInterval(String.valueOf(indexInterval));
+		writer.setEncoding(getEncoding());
+		writer.activateOptions();
+		return writer;
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		SharedFile file = shared;
+		if (file == null) {
+			return;
+		}
+		BackgroundRollingFileAppender writer = file.writer;
+		while (!writer.write(event, bytes, metrics, errorHandler)) {
+			//closed by a reload which reopened the file with other options
+			BackgroundRollingFileAppender reopened = file.writer;
+			if (reopened == writer) {
+				return;
+			}
+			writer = reopened;
+		}
+	}
+
+	public void writeHeaderIfEmpty(String header) throws IOException {
+		SharedFile file = shared;
+		if (file != null) {
+			file.writer.writeHeaderIfEmpty(header);
+		}
+	}
+
+	public void replaces(Appender previous) {
+		if (previous instanceof SharedFileAppender) {
+			this.previous = (SharedFileAppender) previous;
+		}
+	}
+
+	/** Detach from the file, it is closed if no other destination writes to it. */
+	public void close() {
+		FILES_LOCK.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (shared != null) {
+				release();
+			}
+		} finally {
+			FILES_LOCK.unlock();
+		}
+	}
+
+	private void release() {
+		SharedFile file = shared;
+		shared = null;
+		if (--file.references == 0) {
+			FILES.remove(file.path);
+			file.writer.close();
+			LogLog.debug("Closed shared file [" + file.path + "].");
+		}
+	}
+
+	/** Number of destinations writing to <code>fileName</code>, 0 if the file is not open. */
+	public static int getReferenceCount(String fileName) {
+		FILES_LOCK.lock();
+		try {
+			SharedFile file = (SharedFile) FILES.get(canonicalPath(fileName));
+			return file == null ? 0 : file.references;
+		} finally {
+			FILES_LOCK.unlock();
+		}
+	}
+
+	public void setFile(String file) {
+		this.fileName = file.trim();
+	}
+	public String getFile() {
+		return fileName;
+	}
+	public void setAppend(boolean append) {
+		this.fileAppend = append;
+	}
+	public boolean getAppend() {
+		return fileAppend;
+	}
+	/** Date pattern of the rollover, see {@link DailyRollingFileAppender#setDatePattern(String)}. */
+	public void setDatePattern(String datePattern) {
+		this.datePattern = datePattern;
+	}
+	public String getDatePattern() {
+		return datePattern;
+	}
+	/** Move an existing non-empty file to a backup when the file is opened. */
+	public void setRollOnStart(boolean rollOnStart) {
+		this.rollOnStart = rollOnStart;
+	}
+	public boolean getRollOnStart() {
+		return rollOnStart;
+	}
+	/** Write each event to the file immediately, otherwise only when the buffer is full. */
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+	public boolean getImmediateFlush() {
+		return immediateFlush;
+	}
+	/** Same as <code>ImmediateFlush</code> set to the opposite, as for {@link FileAppender#setBufferedIO(boolean)}. */
+	public void setBufferedIO(boolean bufferedIO) {
+		this.immediateFlush = !bufferedIO;
+	}
+	public boolean getBufferedIO() {
+		return !immediateFlush;
+	}
+	/** Size in bytes of the write buffer. */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(1024, bufferSize);
+	}
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	/** Bytes written between two entries of the time index, see {@link BackgroundRollingFileAppender#setIndexInterval(String)}. */
+	public void setIndexInterval(String value) {
+		this.indexInterval = OptionConverter.toFileSize(value, BackgroundRollingFileAppender.DEFAULT_INDEX_INTERVAL);
+	}
+	public long getIndexIntervalSize() {
+		return indexInterval;
+	}
+}
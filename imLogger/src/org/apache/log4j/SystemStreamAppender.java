@@ -0,0 +1,92 @@
+package org.apache.log4j;
+
+import java.io.PrintStream;
+
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>SystemStreamAppender</code> writes to <code>System.out</code> or
+ * <code>System.err</code> like {@link ConsoleAppender} without its locks.
+ *
+ * <p>Each event is encoded outside any lock and handed to the stream with one
+ * <code>write</code>, which the stream serializes itself, so events of concurrent
+ * threads are not interleaved. Nothing synchronizes on the appender, a virtual thread
+ * waiting for the console is unmounted instead of pinning its carrier thread. The
+ * stream is the one set when the destination is activated. <b>Target</b> is
+ * <code>System.out</code> (default) or <code>System.err</code>, the stream is flushed
+ * after each event unless <b>ImmediateFlush</b> is <code>false</code>.
+ *
+ * <p>The bytes bypass the charset of the stream, so they are encoded with <b>Encoding</b>,
+ * by default the charset the JVM uses for the stream (<code>stdout.encoding</code> or
+ * <code>stderr.encoding</code>) or else the platform charset.
+ */
+public class SystemStreamAppender extends ByteAppender {
+
+	private String target = ConsoleAppender.SYSTEM_OUT;
+	private boolean immediateFlush = true;
+	private boolean encodingSet = false;
+
+	private volatile PrintStream stream;
+
+	public void activateOptions() {
+		boolean err = ConsoleAppender.SYSTEM_ERR.equals(target);
+		if (!encodingSet) {
+			String encoding = System.getProperty(err ? "stderr.encoding" : "stdout.encoding",
+					System.getProperty(err ? "sun.stderr.encoding" : "sun.stdout.encoding"));
+			if (encoding != null) {
+				super.setEncoding(encoding);
+			}
+		}
+		stream = err ? System.err : System.out;
+	}
+
+	protected void write(LoggingEvent event, ByteBuilder bytes) {
+		PrintStream s = stream;
+		if (s == null) {
+			return;
+		}
+		s.write(bytes.array(), 0, bytes.length());
+		if (immediateFlush) {
+			s.flush();
+		}
+	}
+
+	/** Flush the stream, which is not closed. */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		PrintStream s = stream;
+		if (s != null) {
+			s.flush();
+		}
+	}
+
+	/** <code>System.out</code> or <code>System.err</code>. */
+	public void setTarget(String value) {
+		String v = value.trim();
+		if (ConsoleAppender.SYSTEM_ERR.equalsIgnoreCase(v)) {
+			target = ConsoleAppender.SYSTEM_ERR;
+		} else {
+			if (!ConsoleAppender.SYSTEM_OUT.equalsIgnoreCase(v)) {
+				LogLog.warn("[" + value + "] should be System.out or System.err, using System.out.");
+			}
+			target = ConsoleAppender.SYSTEM_OUT;
+		}
+	}
+	public String getTarget() {
+		return target;
+	}
+	public void setEncoding(String encoding) {
+		super.setEncoding(encoding);
+		encodingSet = true;
+	}
+	public void setImmediateFlush(boolean immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+	public boolean getImmediateFlush() {
+		return immediateFlush;
+	}
+}
@@ -0,0 +1,102 @@
+package org.apache.log4j.varia;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>DuplicateFilter</code> collapses the repeats of a message. The first event
+ * with a given logger, level and message is passed and opens a window of
+ * <b>Window</b> milliseconds (default 10000); the repeats within the window are
+ * denied and counted.
+ *
+ * <p>The count is appended as one <code>Message repeated N times</code> summary event
+ * before the first repeat after the window, or by the background thread once the
+ * message has stopped, or when the message is forgotten to make room for another one.
+ */
+public class DuplicateFilter extends SuppressingFilter {
+
+	public static final long DEFAULT_WINDOW = 10000;
+
+	/** State of one message. */
+	static final class Occurrence extends KeyTable.Entry {
+		/** End of the current window, in milliseconds. */
+		final AtomicLong windowEnd;
+		volatile LoggingEvent first;
+
+		Occurrence(String name, int level, String text, int hash, long now) {
+			super(name, level, text, hash);
+			this.windowEnd = new AtomicLong(now);
+			this.lastUsed = now;
+		}
+	}
+
+	private long window = DEFAULT_WINDOW;
+	private KeyTable occurrences;
+
+	public void activateOptions() {
+		occurrences = new KeyTable(maxKeys) {
+			KeyTable.Entry create(String name, int level, String text, int hash, long now) {
+				return new Occurrence(name, level, text, hash, now);
+			}
+			void evicted(KeyTable.Entry entry) {
+				summarize((Occurrence) entry, System.currentTimeMillis());
+			}
+		};
+	}
+
+	protected boolean suppress(LoggingEvent event) {
+		if (occurrences == null) {
+			return false;
+		}
+		long now = event.timeStamp;
+		Occurrence o = (Occurrence) occurrences.get(event.getLoggerName(), event.getLevel().toInt(), event.getRenderedMessage(), now);
+		while (true) {
+			long end = o.windowEnd.get();
+			if (now < end) {
+				o.suppressed.incrementAndGet();
+				return true;
+			}
+			if (o.windowEnd.compareAndSet(end, now + window)) {
+				summarize(o, now);
+				o.first = event;
+				return false;
+			}
+		}
+	}
+
+	protected long sweepPeriod() {
+		return Math.max(100, window);
+	}
+
+	protected void sweep(long now) {
+		if (occurrences == null) {
+			return;
+		}
+		for (int i = 0; i < occurrences.capacity(); i++) {
+			Occurrence o = (Occurrence) occurrences.slot(i);
+			if (o != null && now >= o.windowEnd.get()) {
+				summarize(o, now);
+			}
+		}
+	}
+
+	private void summarize(Occurrence o, long now) {
+		if (o.suppressed.get() == 0) {
+			return;
+		}
+		int n = o.suppressed.getAndSet(0);
+		LoggingEvent first = o.first;
+		if (n > 0 && first != null) {
+			summarize(first, now, "Message repeated " + n + " times: " + o.text);
+		}
+	}
+
+	/** Milliseconds during which the repeats of a message are counted instead of written. */
+	public void setWindow(long window) {
+		this.window = Math.max(1, window);
+	}
+	public long getWindow() {
+		return window;
+	}
+}
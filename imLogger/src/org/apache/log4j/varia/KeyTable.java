@@ -0,0 +1,111 @@
+package org.apache.log4j.varia;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Bounded, lock-free table of the per key state of a {@link SuppressingFilter}.
+ *
+ * <p>A key is the logger name, a level and a text, e.g. a message. The table has a
+ * fixed number of slots; a key is looked for in {@link #PROBES} consecutive slots
+ * and, when they are all taken by other keys, replaces the least recently used of
+ * them. Slots are claimed and replaced with a CAS, so two threads meeting a new key
+ * at the same moment may briefly use different entries; the filters tolerate this.
+ */
+abstract class KeyTable {
+
+	static final int PROBES = 8;
+
+	/** State of one key. */
+	static class Entry {
+		final String name;
+		final int level;
+		final String text;
+		final int hash;
+		/** Number of events denied since the last summary. */
+		final AtomicInteger suppressed = new AtomicInteger();
+		volatile long lastUsed;
+
+		Entry(String name, int level, String text, int hash) {
+			this.name = name;
+			this.level = level;
+			this.text = text;
+			this.hash = hash;
+		}
+
+		boolean matches(String name, int level, String text, int hash) {
+			return this.hash == hash && this.level == level && equals(this.name, name) && equals(this.text, text);
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == b || (a != null && a.equals(b));
+		}
+	}
+
+	private final AtomicReferenceArray slots;
+	private final int mask;
+
+	KeyTable(int maxKeys) {
+		int capacity = PROBES;
+		while (capacity < maxKeys) {
+			capacity <<= 1;
+		}
+		this.slots = new AtomicReferenceArray(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/** New state for a key seen for the first time. */
+	abstract Entry create(String name, int level, String text, int hash, long now);
+
+	/** Called with the state of a key which has been replaced by another key. */
+	void evicted(Entry entry) {
+	}
+
+	/** The state of the key, created if the key is not in the table. */
+	Entry get(String name, int level, String text, long now) {
+		int hash = hash(name, level, text);
+		int victim = -1;
+		Entry victimEntry = null;
+		for (int i = 0; i < PROBES; i++) {
+			int index = (hash + i) & mask;
+			Entry e = (Entry) slots.get(index);
+			if (e == null) {
+				Entry created = create(name, level, text, hash, now);
+				if (slots.compareAndSet(index, null, created)) {
+					return created;
+				}
+				e = (Entry) slots.get(index);
+			}
+			if (e.matches(name, level, text, hash)) {
+				e.lastUsed = now;
+				return e;
+			}
+			if (victimEntry == null || e.lastUsed - victimEntry.lastUsed < 0) {
+				victim = index;
+				victimEntry = e;
+			}
+		}
+		Entry created = create(name, level, text, hash, now);
+		if (slots.compareAndSet(victim, victimEntry, created)) {
+			evicted(victimEntry);
+		}
+		return created;
+	}
+
+	int capacity() {
+		return slots.length();
+	}
+
+	/** The entry in slot <code>index</code>, <code>null</code> if the slot is free. */
+	Entry slot(int index) {
+		return (Entry) slots.get(index);
+	}
+
+	private static int hash(String name, int level, String text) {
+		int h = name == null ? 0 : name.hashCode();
+		h = h * 31 + level;
+		h = h * 31 + (text == null ? 0 : text.hashCode());
+		//spread the bits, only the low bits select the slot
+		return h ^ (h >>> 16);
+	}
+}
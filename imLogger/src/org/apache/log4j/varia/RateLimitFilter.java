@@ -0,0 +1,154 @@
+package org.apache.log4j.varia;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.MessageTemplate;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p><code>RateLimitFilter</code> denies the events which exceed <b>Rate</b> events
+ * per second, allowing bursts of up to <b>Burst</b> events (default the rate).
+ *
+ * <p>The limit applies separately to each key selected by the <b>Key</b> option:
+ * <ul>
+ * <li><code>LOGGER</code> - the logger name (default).</li>
+ * <li><code>TEMPLATE</code> - the logger name and the message pattern of a
+ * parameterized message, or the message itself.</li>
+ * <li><code>DESTINATION</code> - one limit for all the events.</li>
+ * </ul>
+ *
+ * <p>The bucket of a key is a single theoretical arrival time updated with a CAS
+ * (the generic cell rate algorithm), so the filter never blocks. Once a second the
+ * number of denied events of each key is appended as a summary event.
+ */
+public class RateLimitFilter extends SuppressingFilter {
+
+	public static final String KEY_LOGGER = "LOGGER";
+	public static final String KEY_TEMPLATE = "TEMPLATE";
+	public static final String KEY_DESTINATION = "DESTINATION";
+
+	private static final long SWEEP_PERIOD = 1000;
+
+	/** Bucket of one key. */
+	static final class Bucket extends KeyTable.Entry {
+		final AtomicLong arrival;
+		volatile LoggingEvent denied;
+
+		Bucket(String name, String text, int hash, long now) {
+			super(name, 0, text, hash);
+			this.arrival = new AtomicLong(now);
+			this.lastUsed = now;
+		}
+	}
+
+	private int rate = 0;
+	private int burst = 0;
+	private String key = KEY_LOGGER;
+
+	private long interval;
+	private long tolerance;
+	private KeyTable buckets;
+	private Bucket destination;
+
+	public void activateOptions() {
+		if (rate <= 0) {
+			LogLog.error("Rate option not set for RateLimitFilter, no event is denied.");
+			return;
+		}
+		interval = 1000000000L / rate;
+		tolerance = (Math.max(burst > 0 ? burst : rate, 1) - 1) * interval;
+		if (KEY_DESTINATION.equals(key)) {
+			destination = new Bucket(null, null, 0, System.nanoTime());
+		} else {
+			buckets = new KeyTable(maxKeys) {
+				KeyTable.Entry create(String name, int level, String text, int hash, long now) {
+					return new Bucket(name, text, hash, now);
+				}
+				void evicted(KeyTable.Entry entry) {
+					summarize((Bucket) entry, System.currentTimeMillis());
+				}
+			};
+		}
+	}
+
+	protected boolean suppress(LoggingEvent event) {
+		if (interval == 0) {
+			return false;
+		}
+		long now = System.nanoTime();
+		Bucket b = destination;
+		if (b == null) {
+			String text = KEY_TEMPLATE.equals(key) ? template(event) : null;
+			b = (Bucket) buckets.get(event.getLoggerName(), 0, text, now);
+		}
+		while (true) {
+			long arrival = b.arrival.get();
+			long start = arrival - now < 0 ? now : arrival;
+			if (start - now > tolerance) {
+				b.denied = event;
+				b.suppressed.incrementAndGet();
+				return true;
+			}
+			if (b.arrival.compareAndSet(arrival, start + interval)) {
+				return false;
+			}
+		}
+	}
+
+	private static String template(LoggingEvent event) {
+		Object message = event.getMessage();
+		return message instanceof MessageTemplate ? ((MessageTemplate) message).getPattern() : event.getRenderedMessage();
+	}
+
+	protected long sweepPeriod() {
+		return SWEEP_PERIOD;
+	}
+
+	protected void sweep(long now) {
+		if (destination != null) {
+			summarize(destination, now);
+		} else if (buckets != null) {
+			for (int i = 0; i < buckets.capacity(); i++) {
+				Bucket b = (Bucket) buckets.slot(i);
+				if (b != null) {
+					summarize(b, now);
+				}
+			}
+		}
+	}
+
+	private void summarize(Bucket b, long now) {
+		if (b.suppressed.get() == 0) {
+			return;
+		}
+		int n = b.suppressed.getAndSet(0);
+		LoggingEvent denied = b.denied;
+		if (n > 0 && denied != null) {
+			String message = n + " events over the rate limit of " + rate + " per second were dropped";
+			summarize(denied, now, b.text == null ? message + "." : message + ": " + b.text);
+		}
+	}
+
+	/** Events per second allowed for each key. */
+	public void setRate(int rate) {
+		this.rate = rate;
+	}
+	public int getRate() {
+		return rate;
+	}
+	/** Events allowed at once for a key which has been quiet, default the rate. */
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+	public int getBurst() {
+		return burst;
+	}
+	/** <code>LOGGER</code>, <code>TEMPLATE</code> or <code>DESTINATION</code>. */
+	public void setKey(String key) {
+		this.key = key.trim().toUpperCase();
+	}
+	public String getKey() {
+		return key;
+	}
+}
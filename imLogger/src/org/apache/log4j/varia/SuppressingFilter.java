@@ -0,0 +1,113 @@
+package org.apache.log4j.varia;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * <p>Base of the filters which deny events to protect a destination from floods and
+ * report what they denied in summary events.
+ *
+ * <p>The state is kept per key in a {@link KeyTable} of at most <b>MaxKeys</b> keys
+ * (default 1024). When the filter is attached to its destination with
+ * {@link #attach(Appender)} the summaries are appended to that destination, they pass
+ * through this filter without being counted. A background thread appends the
+ * summaries of the keys which have become quiet.
+ */
+public abstract class SuppressingFilter extends Filter {
+
+	public static final int DEFAULT_MAX_KEYS = 1024;
+
+	private static final ScheduledThreadPoolExecutor SWEEPER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "imLogger-FilterSweeper");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	static {
+		SWEEPER.setRemoveOnCancelPolicy(true);
+	}
+
+	/** Event appended by a filter to report the events it has denied. */
+	public static final class SummaryEvent extends LoggingEvent {
+		private static final long serialVersionUID = 1L;
+
+		public SummaryEvent(LoggingEvent source, long timeStamp, String message) {
+			super(source.fqnOfCategoryClass, LogManager.getLogger(source.getLoggerName()), timeStamp, source.getLevel(), message, null);
+		}
+	}
+
+	/** Runs {@link SuppressingFilter#sweep(long)} until the filter is garbage collected. */
+	private static final class Sweep implements Runnable {
+		private final WeakReference filter;
+		volatile ScheduledFuture future;
+
+		Sweep(SuppressingFilter filter) {
+			this.filter = new WeakReference(filter);
+		}
+
+		public void run() {
+			SuppressingFilter f = (SuppressingFilter) filter.get();
+			if (f == null) {
+				future.cancel(false);
+				return;
+			}
+			f.sweep(System.currentTimeMillis());
+		}
+	}
+
+	protected int maxKeys = DEFAULT_MAX_KEYS;
+	private volatile Appender appender;
+	private boolean sweeping = false;
+
+	/** Append the summaries of this filter to <code>appender</code>, normally the destination which owns the filter. */
+	public synchronized void attach(Appender appender) {
+		this.appender = appender;
+		if (!sweeping) {
+			sweeping = true;
+			long period = sweepPeriod();
+			Sweep sweep = new Sweep(this);
+			sweep.future = SWEEPER.scheduleWithFixedDelay(sweep, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public int decide(LoggingEvent event) {
+		if (event instanceof SummaryEvent) {
+			return NEUTRAL;
+		}
+		return suppress(event) ? DENY : NEUTRAL;
+	}
+
+	/** <code>true</code> if the event must be denied. */
+	protected abstract boolean suppress(LoggingEvent event);
+
+	/** Milliseconds between two calls of {@link #sweep(long)}. */
+	protected abstract long sweepPeriod();
+
+	/** Append the pending summaries which are due at <code>now</code>. */
+	protected abstract void sweep(long now);
+
+	/** Append a summary event with the logger and level of <code>source</code>. */
+	protected void summarize(LoggingEvent source, long timeStamp, String message) {
+		Appender a = this.appender;
+		if (a != null) {
+			a.doAppend(new SummaryEvent(source, timeStamp, message));
+		}
+	}
+
+	/** Maximum number of keys whose state is kept, the least recently used keys are forgotten first. */
+	public void setMaxKeys(int maxKeys) {
+		this.maxKeys = Math.max(KeyTable.PROBES, maxKeys);
+	}
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+}